@@ -0,0 +1,93 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.SignatureAlgorithm;
+
+/**
+ * Compares the cost of verifying a token signed with RS256, ES256 and EdDSA,
+ * as AuthenticateRequest does on a verified token cache miss.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=TokenVerification
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenVerificationBenchmark {
+
+    private String rs256Token;
+    private String es256Token;
+    private String edDsaToken;
+
+    private JwtParser rs256Parser;
+    private JwtParser es256Parser;
+    private JwtParser edDsaParser;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(2048);
+        KeyPair rsa = rsaGenerator.generateKeyPair();
+
+        KeyPairGenerator ecGenerator = KeyPairGenerator.getInstance("EC");
+        ecGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair ec = ecGenerator.generateKeyPair();
+
+        KeyPair ed25519 = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+
+        this.rs256Token = token(rsa, Jwts.SIG.RS256);
+        this.es256Token = token(ec, Jwts.SIG.ES256);
+        this.edDsaToken = token(ed25519, Jwts.SIG.EdDSA);
+
+        this.rs256Parser = Jwts.parser().verifyWith(rsa.getPublic()).build();
+        this.es256Parser = Jwts.parser().verifyWith(ec.getPublic()).build();
+        this.edDsaParser = Jwts.parser().verifyWith(ed25519.getPublic()).build();
+    }
+
+    @Benchmark
+    public Claims rs256() {
+        return this.rs256Parser.parseSignedClaims(this.rs256Token).getPayload();
+    }
+
+    @Benchmark
+    public Claims es256() {
+        return this.es256Parser.parseSignedClaims(this.es256Token).getPayload();
+    }
+
+    @Benchmark
+    public Claims edDsa() {
+        return this.edDsaParser.parseSignedClaims(this.edDsaToken).getPayload();
+    }
+
+    private static String token(KeyPair keyPair, SignatureAlgorithm algorithm) {
+        return Jwts.builder()
+                .subject("benchmark-user")
+                .claim("azp", "benchmark-client")
+                .claim("groups", List.of("group-1", "group-2"))
+                .expiration(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+                .signWith(keyPair.getPrivate(), algorithm)
+                .compact();
+    }
+}
@@ -0,0 +1,96 @@
+package com.tarcinapp.entitypersistencegateway.helpers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+/**
+ * Compares hashing a creation payload with CanonicalJsonHasher, fed chunk by
+ * chunk as AcquireLockForCreation does, with the previous approach which
+ * decoded the body into a String and hex encoded the SHA-256 digest with
+ * String.format. Run with the gc profiler (default of the benchmark profile)
+ * to see the allocations per operation in gc.alloc.rate.norm.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=CanonicalJsonHasher
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CanonicalJsonHasherBenchmark {
+
+    // number of custom properties in the payload
+    @Param({ "10", "200" })
+    private int fields;
+
+    private List<DataBuffer> chunks;
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder("{\"_name\":\"benchmark\",\"_kind\":\"book\",\"_ownerUsers\":[\"u1\",\"u2\"]");
+
+        for (int i = 0; i < this.fields; i++) {
+            json.append(",\"field").append(i).append("\":{\"value\":").append(i * 1.5)
+                    .append(",\"label\":\"label of field ").append(i).append("\"}");
+        }
+
+        this.payload = json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+
+        // request bodies arrive in chunks of a few kilobytes
+        DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+        this.chunks = new ArrayList<>();
+
+        for (int offset = 0; offset < this.payload.length; offset += 4096) {
+            int length = Math.min(4096, this.payload.length - offset);
+            DataBuffer chunk = bufferFactory.allocateBuffer(length);
+            chunk.write(this.payload, offset, length);
+            this.chunks.add(chunk);
+        }
+    }
+
+    @Benchmark
+    public String canonicalHash() throws IOException {
+        CanonicalJsonHasher hasher = new CanonicalJsonHasher();
+
+        for (DataBuffer chunk : this.chunks) {
+            hasher.update(chunk);
+        }
+
+        return hasher.hexDigest();
+    }
+
+    @Benchmark
+    public String stringHash() throws Exception {
+        String body = new String(this.payload);
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(body.getBytes());
+
+        StringBuilder result = new StringBuilder();
+
+        for (byte b : hash) {
+            result.append(String.format("%02x", b));
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Signals that a request is rejected by the authentication filter.
+ *
+ * Rejections are part of the normal traffic, thus this exception does not
+ * fill a stack trace. An instance is precomputed for each reason and shared by
+ * all rejected requests.
+ */
+public class AuthenticationRejectedException extends RuntimeException {
+
+    private static final Map<RejectionReason, AuthenticationRejectedException> INSTANCES = new EnumMap<>(
+            RejectionReason.class);
+
+    static {
+        for (RejectionReason reason : RejectionReason.values()) {
+            INSTANCES.put(reason, new AuthenticationRejectedException(reason));
+        }
+    }
+
+    private final RejectionReason reason;
+
+    private AuthenticationRejectedException(RejectionReason reason) {
+        super(reason.getMessage(), null, false, false);
+        this.reason = reason;
+    }
+
+    public static AuthenticationRejectedException of(RejectionReason reason) {
+        return INSTANCES.get(reason);
+    }
+
+    public RejectionReason getReason() {
+        return this.reason;
+    }
+
+    public enum RejectionReason {
+        MISSING_HEADER("No Authorization header", false),
+        NOT_BEARER("Only token authorization is allowed", false),
+        MALFORMED("Malformed token", true),
+        EXPIRED("Token is expired", true),
+        INVALID_SIGNATURE("Invalid token signature", true),
+        INVALID_ISSUER("Invalid issuer", true),
+        UNSUPPORTED("Unsupported token", true),
+
+        // key may become available with the next key rotation, do not cache it
+        UNKNOWN_KEY("Signing key of the token is unknown", false),
+        INVALID("Invalid Authorization header", true);
+
+        private final String message;
+        private final boolean cacheable;
+
+        RejectionReason(String message, boolean cacheable) {
+            this.message = message;
+            this.cacheable = cacheable;
+        }
+
+        public String getMessage() {
+            return this.message;
+        }
+
+        /**
+         * Whether the rejection depends only on the token itself, so that the
+         * same token is always rejected with the same reason.
+         */
+        public boolean isCacheable() {
+            return this.cacheable;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tarcinapp.entitypersistencegateway.GatewaySecurityContext;
+import com.tarcinapp.entitypersistencegateway.KindPathConfigAttr;
+import com.tarcinapp.entitypersistencegateway.config.FieldVisibilityConfig;
+import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import reactor.core.publisher.Mono;
+
+/**
+ * Keeps the decisions of the role-determined field policies, keyed by the
+ * caller's role set and the record kind.
+ *
+ * Field policies answer which fields are forbidden for the caller. For most of
+ * them the answer depends only on the caller's roles and the kind of the
+ * record, thus all callers with the same roles share a cell of the matrix.
+ * Cells are filled lazily with the first request of a role set and kind. The
+ * first request reading a cell older than the refresh interval refreshes it in
+ * the background with its own inquiry data, while the current decision keeps
+ * being served. Thus a refresh never uses the token of a caller which may have
+ * expired since. Cells which are not refreshed expire.
+ *
+ * Only policies declared as role-determined in app.opa.fieldVisibility are
+ * kept in the matrix. Record-dependent policies are always evaluated.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class FieldVisibilityMatrix {
+
+    @Autowired
+    private FieldVisibilityConfig fieldVisibilityConfig;
+
+    @Autowired
+    private IAuthorizationClient authorizationClient;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private AsyncCache<String, Cell> matrix;
+
+    private long refreshNanos;
+
+    private Set<String> roleDeterminedPolicies = Collections.emptySet();
+
+    private Logger logger = LogManager.getLogger(FieldVisibilityMatrix.class);
+
+    private final static String KIND_PATH_CONFIG_ATTR = "KindPathConfigAttr";
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void initMatrix() {
+
+        if (this.matrix != null || !this.fieldVisibilityConfig.isEnabled()) {
+            return;
+        }
+
+        Set<String> policies = new HashSet<>();
+
+        for (FieldVisibilityConfig.FieldPolicy policy : this.fieldVisibilityConfig.getPolicies()) {
+
+            if (policy.getDeterminedBy() == FieldVisibilityConfig.DeterminedBy.ROLES) {
+                policies.add(policy.getPolicyName());
+            }
+        }
+
+        this.roleDeterminedPolicies = policies;
+
+        this.refreshNanos = Duration.ofSeconds(this.fieldVisibilityConfig.getRefreshSeconds()).toNanos();
+
+        this.matrix = Caffeine.newBuilder()
+                .maximumSize(this.fieldVisibilityConfig.getMaxSize())
+                .expireAfterWrite(Duration.ofSeconds(this.fieldVisibilityConfig.getTtlSeconds()))
+                .recordStats()
+                .buildAsync();
+
+        CaffeineCacheMetrics.monitor(this.meterRegistry, this.matrix.synchronous(), "fieldVisibility");
+
+        logger.debug("Field visibility matrix is initialized for policies: " + policies);
+    }
+
+    /**
+     * Returns true if the decisions of the policy are kept in the matrix.
+     *
+     * @param policyName
+     * @return
+     */
+    public boolean covers(String policyName) {
+        return this.matrix != null && this.roleDeterminedPolicies.contains(policyName);
+    }
+
+    /**
+     * Returns the decision from the matrix, or evaluates it and fills the cell.
+     * Decisions are shared by the callers and must not be modified.
+     *
+     * @param <T>
+     * @param exchange
+     * @param policyInquiryData
+     * @param type
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> executePolicy(ServerWebExchange exchange, PolicyData policyInquiryData, Class<T> type) {
+        String key = this.keyOf(exchange, policyInquiryData, type);
+
+        if (key == null) {
+            return this.authorizationClient.executePolicy(policyInquiryData, type);
+        }
+
+        CompletableFuture<Cell> cell = this.matrix.getIfPresent(key);
+
+        if (cell != null && cell.isDone() && !cell.isCompletedExceptionally()) {
+            this.refreshIfDue(key, cell, policyInquiryData, type);
+
+            return Mono.just((T) cell.join().decision);
+        }
+
+        return Mono.fromFuture(this.matrix.get(key, (k, executor) -> this.evaluationOf(policyInquiryData, type)
+                .map(Cell::new)
+                .toFuture()).copy())
+                .map(filled -> (T) filled.decision);
+    }
+
+    /**
+     * Refreshes the cell with the inquiry data of the current request, if the
+     * cell is older than the refresh interval. Only the first request reading
+     * the cell starts the refresh.
+     */
+    private void refreshIfDue(String key, CompletableFuture<Cell> current, PolicyData data, Class<?> type) {
+        Cell cell = current.join();
+
+        if (System.nanoTime() - cell.filledAt < this.refreshNanos || !cell.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        this.evaluationOf(data, type)
+                .subscribe(decision -> this.matrix.asMap().replace(key, current,
+                        CompletableFuture.completedFuture(new Cell(decision))),
+                        e -> {
+                            // let the next request try again, the current decision is served meanwhile
+                            cell.refreshing.set(false);
+
+                            logger.warn("Field visibility cell can't be refreshed. Serving the current decision.", e);
+                        });
+    }
+
+    /**
+     * Key is in the form of policyName|resultType|kind|sortedRoles. Null if the
+     * caller is not authenticated.
+     */
+    private String keyOf(ServerWebExchange exchange, PolicyData data, Class<?> type) {
+        GatewaySecurityContext securityContext = data.getSecurityContext();
+
+        if (securityContext == null || securityContext.getAuthSubject() == null) {
+            return null;
+        }
+
+        Set<String> roles = securityContext.getRoles() != null
+                ? new TreeSet<>(securityContext.getRoles())
+                : Collections.emptySet();
+
+        return data.getPolicyName() + "|" + type.getName() + "|" + this.kindOf(exchange, data) + "|"
+                + String.join(",", roles);
+    }
+
+    private String kindOf(ServerWebExchange exchange, PolicyData data) {
+
+        if (data.getOriginalRecord() != null && data.getOriginalRecord().get_kind() != null) {
+            return data.getOriginalRecord().get_kind();
+        }
+
+        if (data.getRequestPayload() != null && data.getRequestPayload().get_kind() != null) {
+            return data.getRequestPayload().get_kind();
+        }
+
+        KindPathConfigAttr kindPathConfigAttr = exchange.getAttribute(KIND_PATH_CONFIG_ATTR);
+
+        if (kindPathConfigAttr != null && kindPathConfigAttr.isKindPathConfigured()) {
+            return kindPathConfigAttr.getKindName();
+        }
+
+        return "";
+    }
+
+    /**
+     * Evaluation used to fill and refresh a cell. Records are reduced to their
+     * kind, as the policy must not depend on the other fields of the record.
+     */
+    private Mono<?> evaluationOf(PolicyData data, Class<?> type) {
+        PolicyData sample;
+
+        try {
+            sample = (PolicyData) data.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+
+        sample.setRequestPayload(kindOnly(data.getRequestPayload()));
+        sample.setOriginalRecord(kindOnly(data.getOriginalRecord()));
+
+        return this.authorizationClient.executePolicy(sample, type);
+    }
+
+    private static AnyRecordBase kindOnly(AnyRecordBase record) {
+
+        if (record == null) {
+            return null;
+        }
+
+        AnyRecordBase kindOnly = new AnyRecordBase();
+        kindOnly.set_kind(record.get_kind());
+
+        return kindOnly;
+    }
+
+    private static class Cell {
+
+        private final Object decision;
+        private final long filledAt = System.nanoTime();
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        Cell(Object decision) {
+            this.decision = decision;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.tarcinapp.entitypersistencegateway.auth;
 
+import java.util.List;
+import java.util.Map;
+
 import reactor.core.publisher.Mono;
 
 public interface IAuthorizationClient {
     Mono<PolicyResult> executePolicy(PolicyData data);
     <T> Mono<T> executePolicy(PolicyData data,  Class<T> type);
+    Mono<Map<String, Object>> executePolicies(PolicyData data, List<String> policyNames);
 }
@@ -0,0 +1,403 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.LocatorAdapter;
+import io.jsonwebtoken.security.UnsupportedKeyException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Resolves token signing keys from a JSON Web Key Set, indexed by the 'kid'
+ * header of the token. Configuring 'app.auth.jwksUri' enables the resolver.
+ *
+ * - Keys are kept in an immutable map which is swapped as a whole on each
+ * refresh. Reading a key never takes a lock.
+ * - The key set is refreshed in the background with a jittered interval, so
+ * that replicas do not hit the identity provider at the same time.
+ * - A token with an unknown kid triggers a single fetch, shared by all the
+ * requests waiting for the same refresh. Unknown kid refreshes are throttled
+ * to protect the identity provider against tokens with random kids.
+ *
+ * RSA, EC (P-256, P-384, P-521) and OKP (Ed25519, Ed448) keys are supported.
+ * If a JWK declares an 'alg', tokens signed with any other algorithm are
+ * rejected for that key.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class JwksKeyResolver extends LocatorAdapter<Key> {
+
+    @Autowired(required = false)
+    private Key key;
+
+    @Value("${app.auth.jwksUri:#{null}}")
+    private String jwksUri;
+
+    @Value("${app.auth.jwks.refreshIntervalSeconds:300}")
+    private long refreshIntervalSeconds;
+
+    @Value("${app.auth.jwks.refreshJitterSeconds:30}")
+    private long refreshJitterSeconds;
+
+    @Value("${app.auth.jwks.unknownKidMinIntervalSeconds:10}")
+    private long unknownKidMinIntervalSeconds;
+
+    @Value("${app.auth.jwks.fetchTimeoutSeconds:5}")
+    private long fetchTimeoutSeconds;
+
+    private volatile Map<String, SigningKey> keys = Collections.emptyMap();
+
+    // nanoTime has an arbitrary origin, thus a key set never refreshed is marked explicitly
+    private volatile boolean refreshedOnce = false;
+
+    private volatile long lastRefreshNanos = System.nanoTime();
+
+    private final AtomicReference<Mono<Void>> inFlightRefresh = new AtomicReference<>();
+
+    private JwksSource jwksSource;
+
+    private Scheduler refreshScheduler;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Logger logger = LogManager.getLogger(JwksKeyResolver.class);
+
+    private static final byte[] ED25519_SPKI_PREFIX = new byte[] {
+            0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00 };
+
+    private static final byte[] ED448_SPKI_PREFIX = new byte[] {
+            0x30, 0x43, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x71, 0x03, 0x3a, 0x00 };
+
+    public void setJwksSource(JwksSource jwksSource) {
+        this.jwksSource = jwksSource;
+    }
+
+    /**
+     * JWKS resolution is enabled when a JWKS URI is configured or a JWKS source
+     * is set explicitly.
+     */
+    public boolean isEnabled() {
+        return this.jwksSource != null;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void init() {
+
+        if (this.jwksUri == null || this.jwksUri.equals("false") || this.refreshScheduler != null) {
+            return;
+        }
+
+        this.jwksSource = JwksSource.fromUri(this.jwksUri);
+        this.refreshScheduler = Schedulers.newSingle("jwks-refresh", true);
+
+        /*
+         * This log can't contain request id because it is not generated yet.
+         */
+        logger.info("JWKS key resolution is enabled. Keys are loaded from: " + this.jwksSource);
+
+        this.refresh()
+                .doFinally(signalType -> this.scheduleRefresh())
+                .subscribe();
+    }
+
+    /**
+     * Makes sure that the key referenced by the token's kid header is loaded.
+     * Completes immediately if the key is already known. Otherwise joins the
+     * in-flight refresh, or starts one if the last refresh is old enough.
+     *
+     * @param jwt compact JWT
+     * @return
+     */
+    public Mono<Void> ensureKey(String jwt) {
+        String kid = this.readKeyId(jwt);
+
+        if (kid == null || this.keys.containsKey(kid)) {
+            return Mono.empty();
+        }
+
+        Mono<Void> inFlight = this.inFlightRefresh.get();
+
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        long sinceLastRefresh = System.nanoTime() - this.lastRefreshNanos;
+
+        if (this.refreshedOnce
+                && sinceLastRefresh < TimeUnit.SECONDS.toNanos(this.unknownKidMinIntervalSeconds)) {
+            logger.debug("Token has an unknown kid '" + kid + "', but key set is refreshed recently.");
+            return Mono.empty();
+        }
+
+        logger.debug("Token has an unknown kid '" + kid + "'. Refreshing the key set.");
+
+        return this.refresh();
+    }
+
+    /**
+     * Tells if the key a token was verified with is still in the key set. Tokens
+     * without kid are verified with the static key, which is never removed.
+     *
+     * @param kid key id of the token, may be null
+     * @return
+     */
+    public boolean hasKey(String kid) {
+        return kid == null || this.keys.containsKey(kid);
+    }
+
+    @Override
+    protected Key locate(JwsHeader header) {
+        String kid = header.getKeyId();
+
+        // tokens without kid can still be verified with the static key, if there is any
+        if (kid == null) {
+
+            if (this.key != null) {
+                return this.key;
+            }
+
+            throw new JwtException("Token does not have a key id");
+        }
+
+        SigningKey resolved = this.keys.get(kid);
+
+        if (resolved == null) {
+            // key may be published later, thus this is not reported as an invalid token
+            throw new UnknownKeyIdException("Unknown key id: " + kid);
+        }
+
+        if (resolved.algorithm != null && !resolved.algorithm.equals(header.getAlgorithm())) {
+            throw new UnsupportedKeyException(
+                    "Key " + kid + " can't be used with algorithm " + header.getAlgorithm());
+        }
+
+        return resolved.key;
+    }
+
+    /**
+     * Fetches the key set once, no matter how many callers ask for it at the
+     * same time. A failed refresh keeps the previous key set.
+     */
+    private Mono<Void> refresh() {
+        Mono<Void> inFlight = this.inFlightRefresh.get();
+
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        Mono<Void> refresh = this.jwksSource.fetch()
+                .timeout(Duration.ofSeconds(this.fetchTimeoutSeconds))
+                .map(this::parseKeySet)
+                .doOnNext(keySet -> {
+                    this.keys = keySet;
+                    logger.debug("JWKS is refreshed. Loaded key ids: " + keySet.keySet());
+                })
+                .onErrorResume(e -> {
+                    logger.error("An error occured while refreshing the JWKS. Previous keys are kept.", e);
+                    return Mono.empty();
+                })
+                .doFinally(signalType -> {
+                    this.lastRefreshNanos = System.nanoTime();
+                    this.refreshedOnce = true;
+                    this.inFlightRefresh.set(null);
+                })
+                .then()
+                .cache();
+
+        if (this.inFlightRefresh.compareAndSet(null, refresh)) {
+            return refresh;
+        }
+
+        // another caller started a refresh in between, join it
+        inFlight = this.inFlightRefresh.get();
+
+        return inFlight != null ? inFlight : Mono.empty();
+    }
+
+    private void scheduleRefresh() {
+
+        // context is closed
+        if (this.refreshScheduler.isDisposed()) {
+            return;
+        }
+
+        long jitterMillis = this.refreshJitterSeconds > 0
+                ? ThreadLocalRandom.current().nextLong(TimeUnit.SECONDS.toMillis(this.refreshJitterSeconds))
+                : 0;
+        long delayMillis = TimeUnit.SECONDS.toMillis(this.refreshIntervalSeconds) + jitterMillis;
+
+        this.refreshScheduler.schedule(() -> {
+            this.refresh()
+                    .doFinally(signalType -> this.scheduleRefresh())
+                    .subscribe();
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @EventListener(ContextClosedEvent.class)
+    private void disposeScheduler() {
+
+        if (this.refreshScheduler != null) {
+            this.refreshScheduler.dispose();
+        }
+    }
+
+    private Map<String, SigningKey> parseKeySet(String jwks) {
+        Map<String, SigningKey> keySet = new HashMap<>();
+
+        try {
+            JsonNode keysNode = this.objectMapper.readTree(jwks).path("keys");
+
+            for (JsonNode jwk : keysNode) {
+                String kid = jwk.path("kid").asText(null);
+                String use = jwk.path("use").asText("sig");
+
+                if (kid == null || !use.equals("sig")) {
+                    continue;
+                }
+
+                try {
+                    Key parsed = this.parseKey(jwk);
+
+                    if (parsed != null) {
+                        keySet.put(kid, new SigningKey(parsed, jwk.path("alg").asText(null)));
+                    }
+                } catch (Exception e) {
+                    logger.warn("JWK with kid '" + kid + "' can't be parsed. Skipping it.", e);
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("JWKS document can't be parsed", e);
+        }
+
+        return Map.copyOf(keySet);
+    }
+
+    private Key parseKey(JsonNode jwk) throws Exception {
+        String kty = jwk.path("kty").asText();
+        String crv = jwk.path("crv").asText();
+
+        if (kty.equals("RSA")) {
+            BigInteger modulus = new BigInteger(1, base64Url(jwk.path("n").asText()));
+            BigInteger exponent = new BigInteger(1, base64Url(jwk.path("e").asText()));
+
+            return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, exponent));
+        }
+
+        if (kty.equals("EC")) {
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+            parameters.init(new ECGenParameterSpec(ecCurveName(crv)));
+
+            ECParameterSpec parameterSpec = parameters.getParameterSpec(ECParameterSpec.class);
+            ECPoint point = new ECPoint(
+                    new BigInteger(1, base64Url(jwk.path("x").asText())),
+                    new BigInteger(1, base64Url(jwk.path("y").asText())));
+
+            return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(point, parameterSpec));
+        }
+
+        if (kty.equals("OKP") && (crv.equals("Ed25519") || crv.equals("Ed448"))) {
+
+            /*
+             * OKP keys carry the raw public key. Wrapping it with the fixed
+             * SubjectPublicKeyInfo prefix of the curve gives its X.509 encoding.
+             */
+            byte[] prefix = crv.equals("Ed25519") ? ED25519_SPKI_PREFIX : ED448_SPKI_PREFIX;
+            byte[] rawKey = base64Url(jwk.path("x").asText());
+            byte[] encoded = new byte[prefix.length + rawKey.length];
+
+            System.arraycopy(prefix, 0, encoded, 0, prefix.length);
+            System.arraycopy(rawKey, 0, encoded, prefix.length, rawKey.length);
+
+            return KeyFactory.getInstance(crv).generatePublic(new X509EncodedKeySpec(encoded));
+        }
+
+        logger.debug("Unsupported JWK key type: " + kty + " " + crv);
+
+        return null;
+    }
+
+    private static String ecCurveName(String crv) {
+
+        switch (crv) {
+            case "P-256":
+                return "secp256r1";
+            case "P-384":
+                return "secp384r1";
+            case "P-521":
+                return "secp521r1";
+            default:
+                throw new IllegalArgumentException("Unsupported EC curve: " + crv);
+        }
+    }
+
+    /**
+     * Reads the kid from the JOSE header without verifying the token.
+     */
+    private String readKeyId(String jwt) {
+        int headerEnd = jwt.indexOf('.');
+
+        if (headerEnd <= 0) {
+            return null;
+        }
+
+        try {
+            byte[] header = base64Url(jwt.substring(0, headerEnd));
+            return this.objectMapper.readTree(new String(header, StandardCharsets.UTF_8)).path("kid").asText(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static byte[] base64Url(String value) {
+        return Base64.getUrlDecoder().decode(value);
+    }
+
+    /**
+     * A key from the key set together with the algorithm it is pinned to.
+     */
+    private static class SigningKey {
+
+        private final Key key;
+        private final String algorithm;
+
+        SigningKey(Key key, String algorithm) {
+            this.key = key;
+            this.algorithm = algorithm;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Source of a JSON Web Key Set document. JwksKeyResolver does not care where
+ * the document comes from, which lets the resolver run against the identity
+ * provider's JWKS endpoint, a local file or a stub HTTP server.
+ */
+public interface JwksSource {
+
+    /**
+     * Fetches the raw JWKS document.
+     */
+    Mono<String> fetch();
+
+    /**
+     * Creates a source from the configured URI. URIs with the 'file' scheme are
+     * read from the local file system, everything else is fetched over HTTP.
+     *
+     * @param uri
+     * @return
+     */
+    static JwksSource fromUri(String uri) {
+
+        if (uri.startsWith("file:")) {
+            return new FileJwksSource(Paths.get(URI.create(uri)));
+        }
+
+        return new HttpJwksSource(uri);
+    }
+
+    class FileJwksSource implements JwksSource {
+
+        private final Path path;
+
+        FileJwksSource(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public Mono<String> fetch() {
+            return Mono.fromCallable(() -> Files.readString(this.path, StandardCharsets.UTF_8))
+                    .subscribeOn(Schedulers.boundedElastic());
+        }
+
+        @Override
+        public String toString() {
+            return this.path.toString();
+        }
+    }
+
+    class HttpJwksSource implements JwksSource {
+
+        private final String uri;
+        private final WebClient webClient;
+
+        HttpJwksSource(String uri) {
+            this.uri = uri;
+            this.webClient = WebClient.builder()
+                    .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                    .build();
+        }
+
+        @Override
+        public Mono<String> fetch() {
+            return this.webClient
+                    .get()
+                    .uri(this.uri)
+                    .retrieve()
+                    .bodyToMono(String.class);
+        }
+
+        @Override
+        public String toString() {
+            return this.uri;
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.tarcinapp.entitypersistencegateway.auth;
 
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.tarcinapp.entitypersistencegateway.GatewaySecurityContext;
 import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
 
 import org.springframework.http.HttpMethod;
@@ -19,9 +24,16 @@ public class PolicyData implements Cloneable {
     private RequestPath requestPath;
     private MultiValueMap<String, String> queryParams;
     private String encodedJwt;
+    private Map<String, Object> claims;
     private AnyRecordBase requestPayload;
     private AnyRecordBase originalRecord;
 
+    // not a part of the policy input, policies work with the encodedJwt
+    private GatewaySecurityContext securityContext;
+
+    // serialized input without the policy name, per input mode. Clones share it until one of the fields of the clone is set
+    private AtomicReferenceArray<byte[]> serializedInputs = newSerializedInputs();
+
     public String getPolicyName() {
         return this.policyName;
     }
@@ -36,6 +48,7 @@ public class PolicyData implements Cloneable {
 
     public void setAppShortcode(String appShortcode) {
         this.appShortcode = appShortcode;
+        this.serializedInputs = newSerializedInputs();
     }
 
     public AnyRecordBase getRequestPayload() {
@@ -44,6 +57,7 @@ public class PolicyData implements Cloneable {
 
     public void setRequestPayload(AnyRecordBase requestPayload) {
         this.requestPayload = requestPayload;
+        this.serializedInputs = newSerializedInputs();
     }
 
     public AnyRecordBase getOriginalRecord() {
@@ -52,6 +66,7 @@ public class PolicyData implements Cloneable {
 
     public void setOriginalRecord(AnyRecordBase originalRecord) {
         this.originalRecord = originalRecord;
+        this.serializedInputs = newSerializedInputs();
     }
 
     @JsonSerialize(using = ToStringSerializer.class)
@@ -61,6 +76,7 @@ public class PolicyData implements Cloneable {
 
     public void setHttpMethod(HttpMethod httpMethod) {
         this.httpMethod = httpMethod;
+        this.serializedInputs = newSerializedInputs();
     }
 
     @JsonSerialize(using = ToStringSerializer.class)
@@ -70,6 +86,7 @@ public class PolicyData implements Cloneable {
 
     public void setRequestPath(RequestPath requestPath) {
         this.requestPath = requestPath;
+        this.serializedInputs = newSerializedInputs();
     }
 
     public MultiValueMap<String, String> getQueryParams() {
@@ -78,6 +95,7 @@ public class PolicyData implements Cloneable {
 
     public void setQueryParams(MultiValueMap<String, String> queryParams) {
         this.queryParams = queryParams;
+        this.serializedInputs = newSerializedInputs();
     }
 
     public String getEncodedJwt() {
@@ -86,6 +104,47 @@ public class PolicyData implements Cloneable {
 
     public void setEncodedJwt(String encodedJwt) {
         this.encodedJwt = encodedJwt;
+        this.serializedInputs = newSerializedInputs();
+    }
+
+    /**
+     * Verified claims of the caller, sent to the policies configured for the
+     * claims input instead of the encoded JWT.
+     * 
+     * @return
+     */
+    public Map<String, Object> getClaims() {
+        return this.claims;
+    }
+
+    public void setClaims(Map<String, Object> claims) {
+        this.claims = claims;
+        this.serializedInputs = newSerializedInputs();
+    }
+
+    @JsonIgnore
+    public GatewaySecurityContext getSecurityContext() {
+        return this.securityContext;
+    }
+
+    public void setSecurityContext(GatewaySecurityContext securityContext) {
+        this.securityContext = securityContext;
+    }
+
+    /**
+     * Holders of the serialized input without the policy name, indexed by the
+     * ordinal of the PolicyInputMode. A holder is empty until the input is
+     * serialized in that mode for the first time.
+     * 
+     * @return
+     */
+    @JsonIgnore
+    public AtomicReferenceArray<byte[]> getSerializedInputs() {
+        return this.serializedInputs;
+    }
+
+    private static AtomicReferenceArray<byte[]> newSerializedInputs() {
+        return new AtomicReferenceArray<>(PolicyInputMode.values().length);
     }
 
     @Override
@@ -0,0 +1,22 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+/**
+ * How the caller is represented in the policy input.
+ */
+public enum PolicyInputMode {
+
+    /**
+     * Encoded JWT only, policies decode the token themselves
+     */
+    JWT,
+
+    /**
+     * Verified claims only, encoded JWT is omitted
+     */
+    CLAIMS,
+
+    /**
+     * Both, used when a single input is shared by policies of both modes
+     */
+    BOTH
+}
@@ -6,6 +6,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -13,35 +14,70 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 
+/**
+ * Loads the static public key used for token verification.
+ *
+ * The key is given as a base64 encoded X.509 SubjectPublicKeyInfo through
+ * 'app.auth.publicKey'. 'app.auth.rs256PublicKey' is still honored for
+ * existing deployments. RSA, EC (ES256, ES384, ES512) and EdDSA (Ed25519,
+ * Ed448) keys are supported. The key algorithm is detected from the key
+ * itself unless 'app.auth.publicKeyAlgorithm' is configured. The signature
+ * algorithm is then chosen from the token header and must match the key type.
+ */
 @Component
 public class PublicKeyFactory {
 
+    private static final List<String> SUPPORTED_KEY_ALGORITHMS = List.of("RSA", "EC", "Ed25519", "Ed448");
+
     @Value("${app.auth.rs256PublicKey:#{null}}")
     private String rs256PublicKey;
 
+    @Value("${app.auth.publicKey:#{null}}")
+    private String publicKey;
+
+    @Value("${app.auth.publicKeyAlgorithm:#{null}}")
+    private String publicKeyAlgorithm;
+
     Logger logger = LogManager.getLogger(PublicKeyFactory.class);
 
     @Bean
     public Key loadPublicKey() {
+        String encodedKey = isConfigured(this.publicKey) ? this.publicKey : this.rs256PublicKey;
 
-        if(rs256PublicKey == null || rs256PublicKey.equals("false"))
+        if(!isConfigured(encodedKey))
             return null;
 
-        byte[] data = Base64.getDecoder().decode((rs256PublicKey.getBytes()));
+        byte[] data = Base64.getDecoder().decode((encodedKey.getBytes()));
         X509EncodedKeySpec spec = new X509EncodedKeySpec(data);
-        
-		try {
-            KeyFactory fact = KeyFactory.getInstance("RSA");
-            return fact.generatePublic(spec);
-		} catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-
-            /*
-             * This log can't contain request id because it is not generated yet.
-             */
-			logger.error("An error occured while trying to load public key for authentication.", e);
-		}
-        
+
+        List<String> candidateAlgorithms = isConfigured(this.publicKeyAlgorithm)
+                ? List.of(this.publicKeyAlgorithm)
+                : SUPPORTED_KEY_ALGORITHMS;
+
+        for (String algorithm : candidateAlgorithms) {
+
+            try {
+                KeyFactory fact = KeyFactory.getInstance(algorithm);
+                Key key = fact.generatePublic(spec);
+
+                /*
+                 * This log can't contain request id because it is not generated yet.
+                 */
+                logger.info("Public key for authentication is loaded. Key algorithm: " + key.getAlgorithm());
+
+                return key;
+            } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+                logger.debug("Public key is not a valid " + algorithm + " key.");
+            }
+        }
+
+        logger.error("An error occured while trying to load public key for authentication. Key algorithm must be one of "
+                + SUPPORTED_KEY_ALGORITHMS + ".");
+
         return null;
     }
-    
+
+    private static boolean isConfigured(String value) {
+        return value != null && !value.equals("false");
+    }
 }
@@ -0,0 +1,183 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tarcinapp.entitypersistencegateway.auth.AuthenticationRejectedException.RejectionReason;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.UnsupportedJwtException;
+import io.jsonwebtoken.security.KeyException;
+import io.jsonwebtoken.security.SignatureException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Remembers the tokens which are rejected recently, so that a misbehaving
+ * client sending the same bad token again and again is rejected without
+ * parsing the token, verifying the signature or logging the failure.
+ *
+ * Entries are short lived and the cache is size bounded. Only the rejections
+ * which depend solely on the token are cached. For instance, tokens with an
+ * unknown kid are not cached as the key may be loaded with the next JWKS
+ * refresh, while tokens whose alg does not match the key are cached as
+ * invalid signatures.
+ *
+ * Each rejection is counted in 'gateway.auth.rejections' meter, tagged by the
+ * rejection reason and whether it is served from this cache.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class RejectedTokenCache {
+
+    @Value("${app.auth.rejectedTokenCache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.auth.rejectedTokenCache.maxSize:10000}")
+    private long maxSize;
+
+    @Value("${app.auth.rejectedTokenCache.ttlSeconds:60}")
+    private long ttlSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, RejectionReason> cache;
+
+    private final Map<RejectionReason, Counter> rejectionCounters = new EnumMap<>(RejectionReason.class);
+
+    private final Map<RejectionReason, Counter> cachedRejectionCounters = new EnumMap<>(RejectionReason.class);
+
+    private Logger logger = LogManager.getLogger(RejectedTokenCache.class);
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void initCache() {
+
+        if (this.cache != null) {
+            return;
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(this.maxSize)
+                .expireAfterWrite(Duration.ofSeconds(this.ttlSeconds))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(this.meterRegistry, this.cache, "rejectedTokens");
+
+        for (RejectionReason reason : RejectionReason.values()) {
+            this.rejectionCounters.put(reason, this.rejectionCounter(reason, false));
+            this.cachedRejectionCounters.put(reason, this.rejectionCounter(reason, true));
+        }
+    }
+
+    /**
+     * Returns the reason of the previous rejection of the token, or null if the
+     * token is not rejected recently.
+     *
+     * @param tokenDigest
+     * @return
+     */
+    public RejectionReason get(String tokenDigest) {
+
+        if (!this.enabled || this.cache == null) {
+            return null;
+        }
+
+        RejectionReason reason = this.cache.getIfPresent(tokenDigest);
+
+        if (reason != null) {
+            this.count(this.cachedRejectionCounters, reason);
+        }
+
+        return reason;
+    }
+
+    /**
+     * Counts the rejection and remembers the token if the rejection reason
+     * allows.
+     *
+     * @param tokenDigest digest of the token, may be null if there is no token
+     * @param reason
+     */
+    public void reject(String tokenDigest, RejectionReason reason) {
+        this.count(this.rejectionCounters, reason);
+
+        logger.debug("Request is rejected. Reason: " + reason.getMessage());
+
+        if (!this.enabled || this.cache == null || tokenDigest == null || !reason.isCacheable()) {
+            return;
+        }
+
+        this.cache.put(tokenDigest, reason);
+    }
+
+    /**
+     * Maps the exception thrown while parsing or verifying a token to a
+     * rejection reason.
+     *
+     * @param e
+     * @return
+     */
+    public static RejectionReason reasonOf(JwtException e) {
+
+        if (e instanceof ExpiredJwtException) {
+            return RejectionReason.EXPIRED;
+        }
+
+        if (e instanceof UnknownKeyIdException) {
+            return RejectionReason.UNKNOWN_KEY;
+        }
+
+        // the key is known but can't verify the token, e.g. the alg of the token does not match the key
+        if (e instanceof KeyException) {
+            return RejectionReason.INVALID_SIGNATURE;
+        }
+
+        if (e instanceof SignatureException) {
+            return RejectionReason.INVALID_SIGNATURE;
+        }
+
+        if (e instanceof MalformedJwtException) {
+            return RejectionReason.MALFORMED;
+        }
+
+        if (e instanceof UnsupportedJwtException) {
+            return RejectionReason.UNSUPPORTED;
+        }
+
+        return RejectionReason.INVALID;
+    }
+
+    private void count(Map<RejectionReason, Counter> counters, RejectionReason reason) {
+        Counter counter = counters.get(reason);
+
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    private Counter rejectionCounter(RejectionReason reason, boolean cached) {
+        return Counter.builder("gateway.auth.rejections")
+                .description("Requests rejected by the authentication filter")
+                .tag("reason", reason.name().toLowerCase())
+                .tag("cached", String.valueOf(cached))
+                .register(this.meterRegistry);
+    }
+}
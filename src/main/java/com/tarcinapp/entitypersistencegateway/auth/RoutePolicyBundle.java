@@ -0,0 +1,162 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
+import org.springframework.cloud.gateway.filter.FilterDefinition;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Evaluates all policies of a route in a single round trip to the policy
+ * engine.
+ *
+ * Policy names of each route are collected from the 'policyName' arguments of
+ * the route's filters. When the first filter of a request asks for a decision,
+ * all policies of the route are evaluated together with the same policy inquiry
+ * data and the decisions are kept in the 'PolicyBundle' exchange attribute.
+ * Subsequent filters, including the ones modifying the response, read their
+ * decisions from there.
+ *
+ * If the bundle can't be evaluated, or a policy is not a part of the bundle,
+ * the policy is evaluated alone.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class RoutePolicyBundle {
+
+    @Value("${app.opa.bundle.enabled:false}")
+    private boolean enabled;
+
+    @Autowired
+    private IAuthorizationClient authorizationClient;
+
+    @Autowired
+    private RouteDefinitionLocator routeDefinitionLocator;
+
+    @Autowired
+    private FieldVisibilityMatrix fieldVisibilityMatrix;
+
+    private volatile Map<String, List<String>> routePolicies = Collections.emptyMap();
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private Logger logger = LogManager.getLogger(RoutePolicyBundle.class);
+
+    private final static String POLICY_BUNDLE_ATTR = "PolicyBundle";
+
+    private final static String POLICY_NAME_ARG = "policyName";
+
+    @EventListener({ ContextRefreshedEvent.class, RefreshRoutesEvent.class })
+    private void collectRoutePolicies() {
+
+        if (!this.enabled) {
+            return;
+        }
+
+        this.routeDefinitionLocator.getRouteDefinitions()
+                .collectMap(RouteDefinition::getId, this::policyNamesOf)
+                .subscribe(routePolicies -> {
+                    this.routePolicies = routePolicies;
+
+                    logger.debug("Policy names of " + routePolicies.size() + " routes are collected for bundled evaluation.");
+                }, e -> logger.error("Policy names of the routes can't be collected.", e));
+    }
+
+    /**
+     * Returns the decision of the policy named in the policy inquiry data. If
+     * bundled evaluation is enabled, the decision is read from the bundle of the
+     * route, which is evaluated with the first call in the request. Decisions of
+     * the role-determined field policies are read from the field visibility
+     * matrix.
+     *
+     * @param <T>
+     * @param exchange
+     * @param policyInquiryData
+     * @param type
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> executePolicy(ServerWebExchange exchange, PolicyData policyInquiryData, Class<T> type) {
+
+        // role-determined field policies are answered from the matrix, not from the bundle
+        if (this.fieldVisibilityMatrix.covers(policyInquiryData.getPolicyName())) {
+            return this.fieldVisibilityMatrix.executePolicy(exchange, policyInquiryData, type);
+        }
+
+        List<String> policyNames = this.policyNamesOf(exchange);
+
+        // nothing to save if the route has a single policy
+        if (!this.enabled || policyNames.size() < 2 || !policyNames.contains(policyInquiryData.getPolicyName())) {
+            return this.authorizationClient.executePolicy(policyInquiryData, type);
+        }
+
+        Mono<Map<String, Object>> bundle = (Mono<Map<String, Object>>) exchange.getAttributes()
+                .computeIfAbsent(POLICY_BUNDLE_ATTR, attr -> this.authorizationClient
+                        .executePolicies(policyInquiryData, policyNames)
+                        .onErrorResume(e -> {
+                            logger.warn("Policy bundle evaluation is failed. Policies will be evaluated one by one.", e);
+
+                            return Mono.just(Collections.emptyMap());
+                        })
+                        .cache());
+
+        return bundle.flatMap(decisions -> {
+            Object decision = decisions.get(policyInquiryData.getPolicyName());
+
+            if (decision == null) {
+                logger.debug("Policy " + policyInquiryData.getPolicyName() + " is not in the bundle. Evaluating it alone.");
+
+                return this.authorizationClient.executePolicy(policyInquiryData, type);
+            }
+
+            return Mono.just(this.objectMapper.convertValue(decision, type));
+        });
+    }
+
+    private List<String> policyNamesOf(ServerWebExchange exchange) {
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+
+        if (route == null) {
+            return Collections.emptyList();
+        }
+
+        return this.routePolicies.getOrDefault(route.getId(), Collections.emptyList());
+    }
+
+    private List<String> policyNamesOf(RouteDefinition routeDefinition) {
+        List<String> policyNames = new ArrayList<>();
+
+        for (FilterDefinition filter : routeDefinition.getFilters()) {
+            String policyName = filter.getArgs().get(POLICY_NAME_ARG);
+
+            if (policyName != null && !policyNames.contains(policyName)) {
+                policyNames.add(policyName);
+            }
+        }
+
+        return policyNames;
+    }
+}
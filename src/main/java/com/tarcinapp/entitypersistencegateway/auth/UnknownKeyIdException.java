@@ -0,0 +1,15 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import io.jsonwebtoken.security.KeyException;
+
+/**
+ * Thrown when the kid of a token is not in the key set. Unlike the other key
+ * errors, such as a key used with another algorithm, the key may be published
+ * with the next JWKS refresh, thus the rejection is not cached.
+ */
+public class UnknownKeyIdException extends KeyException {
+
+    public UnknownKeyIdException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,164 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import io.jsonwebtoken.Claims;
+
+/**
+ * Holds the data extracted from a JWT after its signature and issuer are
+ * verified. This is what the verified token cache keeps, so that a cached token
+ * can build the GatewaySecurityContext without any cryptographic operation.
+ *
+ * Instances are immutable. Lists are copied whenever they are handed out, as
+ * the same instance is shared by every request carrying the same token.
+ */
+public class VerifiedToken {
+
+    private final String subject;
+    private final String authParty;
+    private final List<String> roles;
+    private final List<String> groups;
+    private final Instant expiresAt;
+    private final Map<String, Object> customClaims;
+    private final String keyId;
+
+    public VerifiedToken(String subject, String authParty, List<String> roles, List<String> groups,
+            Instant expiresAt) {
+        this(subject, authParty, roles, groups, expiresAt, Collections.emptyMap());
+    }
+
+    public VerifiedToken(String subject, String authParty, List<String> roles, List<String> groups,
+            Instant expiresAt, Map<String, Object> customClaims) {
+        this(subject, authParty, roles, groups, expiresAt, customClaims, null);
+    }
+
+    public VerifiedToken(String subject, String authParty, List<String> roles, List<String> groups,
+            Instant expiresAt, Map<String, Object> customClaims, String keyId) {
+        this.subject = subject;
+        this.authParty = authParty;
+        this.roles = List.copyOf(roles);
+        this.groups = List.copyOf(groups);
+        this.expiresAt = expiresAt;
+        this.customClaims = Collections.unmodifiableMap(new HashMap<>(customClaims));
+        this.keyId = keyId;
+    }
+
+    /**
+     * Extracts subject, roles, groups and auth party from verified claims.
+     *
+     * @param claims
+     * @return
+     */
+    public static VerifiedToken fromClaims(Claims claims) {
+        return fromClaims(claims, Collections.emptyList());
+    }
+
+    /**
+     * Extracts subject, roles, groups, auth party and the given custom claims
+     * from verified claims.
+     *
+     * @param claims
+     * @param customClaimNames claims to keep for the policy input, missing ones are skipped
+     * @return
+     */
+    public static VerifiedToken fromClaims(Claims claims, List<String> customClaimNames) {
+        return fromClaims(claims, customClaimNames, null);
+    }
+
+    /**
+     * Extracts subject, roles, groups, auth party and the given custom claims
+     * from verified claims, along with the id of the key the token is verified
+     * with.
+     *
+     * @param claims
+     * @param customClaimNames claims to keep for the policy input, missing ones are skipped
+     * @param keyId kid header of the token, null if the token does not have one
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static VerifiedToken fromClaims(Claims claims, List<String> customClaimNames, String keyId) {
+        String subject = claims.getSubject();
+        String authParty = claims.get("azp", String.class);
+
+        List<String> groups = Optional.ofNullable((List<String>) claims.get("groups", List.class))
+                .orElse(new ArrayList<String>());
+
+        List<String> roles = Optional.ofNullable((List<String>) claims.get("roles", List.class))
+                .orElse(new ArrayList<String>());
+
+        Instant expiresAt = claims.getExpiration() != null ? claims.getExpiration().toInstant() : null;
+
+        Map<String, Object> customClaims = new HashMap<>();
+
+        for (String customClaimName : customClaimNames) {
+            Object customClaim = claims.get(customClaimName);
+
+            if (customClaim != null) {
+                customClaims.put(customClaimName, customClaim);
+            }
+        }
+
+        return new VerifiedToken(subject, authParty, roles, groups, expiresAt, customClaims, keyId);
+    }
+
+    public String getSubject() {
+        return this.subject;
+    }
+
+    public String getAuthParty() {
+        return this.authParty;
+    }
+
+    public ArrayList<String> getRoles() {
+        return new ArrayList<String>(this.roles);
+    }
+
+    public ArrayList<String> getGroups() {
+        return new ArrayList<String>(this.groups);
+    }
+
+    /**
+     * Expiration of the token, null if the token does not have an exp claim.
+     */
+    public Instant getExpiresAt() {
+        return this.expiresAt;
+    }
+
+    /**
+     * Id of the JWKS key the token is verified with, null if the token does not
+     * have a kid header.
+     */
+    public String getKeyId() {
+        return this.keyId;
+    }
+
+    /**
+     * Claims in the form they are sent to the policies in place of the encoded
+     * JWT. Names are the same with the names in the token.
+     *
+     * @return
+     */
+    public Map<String, Object> toPolicyClaims() {
+        Map<String, Object> policyClaims = new LinkedHashMap<>(this.customClaims);
+
+        policyClaims.put("sub", this.subject);
+        policyClaims.put("azp", this.authParty);
+        policyClaims.put("roles", this.roles);
+        policyClaims.put("groups", this.groups);
+
+        return policyClaims;
+    }
+
+    @Override
+    public String toString() {
+        return "VerifiedToken [subject=" + subject + ", authParty=" + authParty + ", roles=" + roles + ", groups="
+                + groups + ", expiresAt=" + expiresAt + ", keyId=" + keyId + "]";
+    }
+}
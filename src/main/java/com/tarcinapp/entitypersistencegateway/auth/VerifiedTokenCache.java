@@ -0,0 +1,165 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * SPA clients send the same bearer token for every request until it expires.
+ * Verifying the RS256 signature of the same token again and again is the most
+ * expensive part of the authentication. This cache keeps the data extracted
+ * from already verified tokens, keyed by the digest of the compact JWT.
+ *
+ * An entry expires at the token's exp minus the configured clock skew, thus a
+ * cached token is never accepted longer than the verifier itself would accept
+ * it. Tokens without exp claim are kept at most for the configured max TTL.
+ * Entries keep the kid of the key the token is verified with, so that a cached
+ * token is not accepted once its key is removed from the JWKS.
+ *
+ * Hit, miss and eviction metrics are exposed as 'cache.*' meters with the
+ * 'cache=verifiedTokens' tag.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class VerifiedTokenCache {
+
+    @Value("${app.auth.tokenCache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.auth.tokenCache.maxSize:10000}")
+    private long maxSize;
+
+    @Value("${app.auth.tokenCache.maxTtlSeconds:300}")
+    private long maxTtlSeconds;
+
+    @Value("${app.auth.clockSkewSeconds:60}")
+    private long clockSkewSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, VerifiedToken> cache;
+
+    private Logger logger = LogManager.getLogger(VerifiedTokenCache.class);
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void initCache() {
+
+        if (this.cache != null) {
+            return;
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(this.maxSize)
+                .expireAfter(new TokenExpiry())
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(this.meterRegistry, this.cache, "verifiedTokens");
+
+        logger.debug("Verified token cache is initialized. Enabled: " + this.enabled + ", max size: " + this.maxSize);
+    }
+
+    /**
+     * Returns the previously verified token, or null if the token is not
+     * verified before or its entry is expired.
+     *
+     * @param tokenDigest
+     * @return
+     */
+    public VerifiedToken get(String tokenDigest) {
+
+        if (!this.enabled || this.cache == null) {
+            return null;
+        }
+
+        return this.cache.getIfPresent(tokenDigest);
+    }
+
+    /**
+     * Puts a verified token into the cache. Tokens which are about to expire
+     * are not cached at all.
+     *
+     * @param tokenDigest
+     * @param token
+     */
+    public void put(String tokenDigest, VerifiedToken token) {
+
+        if (!this.enabled || this.cache == null) {
+            return;
+        }
+
+        if (this.timeToLive(token).isZero()) {
+            return;
+        }
+
+        this.cache.put(tokenDigest, token);
+    }
+
+    /**
+     * Removes the token from the cache, e.g. when its key is no longer trusted.
+     *
+     * @param tokenDigest
+     */
+    public void invalidate(String tokenDigest) {
+
+        if (this.cache == null) {
+            return;
+        }
+
+        this.cache.invalidate(tokenDigest);
+    }
+
+    private Duration timeToLive(VerifiedToken token) {
+        Duration maxTtl = Duration.ofSeconds(this.maxTtlSeconds);
+
+        if (token.getExpiresAt() == null) {
+            return maxTtl;
+        }
+
+        Duration ttl = Duration.between(Instant.now(), token.getExpiresAt().minusSeconds(this.clockSkewSeconds));
+
+        if (ttl.isNegative()) {
+            return Duration.ZERO;
+        }
+
+        return ttl.compareTo(maxTtl) < 0 ? ttl : maxTtl;
+    }
+
+    /**
+     * Computes the lifetime of each entry from the token itself.
+     */
+    private class TokenExpiry implements Expiry<String, VerifiedToken> {
+
+        @Override
+        public long expireAfterCreate(String key, VerifiedToken value, long currentTime) {
+            return timeToLive(value).toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, VerifiedToken value, long currentTime, long currentDuration) {
+            return timeToLive(value).toNanos();
+        }
+
+        @Override
+        public long expireAfterRead(String key, VerifiedToken value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
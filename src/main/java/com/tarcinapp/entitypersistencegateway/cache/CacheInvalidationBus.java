@@ -0,0 +1,258 @@
+package com.tarcinapp.entitypersistencegateway.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.redisson.api.RTopicReactive;
+import org.redisson.api.RedissonReactiveClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tarcinapp.entitypersistencegateway.cache.CacheInvalidationEvent.InvalidatedRecord;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+/**
+ * Keeps node-local caches of the gateway replicas consistent.
+ *
+ * A write processed by this node is applied to the local
+ * CacheInvalidationListener beans immediately, and then published to the
+ * other replicas over a Redis topic. Invalidations are not published one by
+ * one. They are collected for a short window, or until the batch is full, and
+ * published as a single event, so that a write burst costs a few Redis round
+ * trips instead of one per request.
+ *
+ * Each node ignores the events it published itself. Events published while a
+ * node is disconnected from Redis are lost, thus caches must still have a TTL.
+ *
+ * Invalidations waiting to be published are bounded. If Redis stalls and the
+ * limit is reached, the oldest ones are dropped and counted, and the next
+ * event published invalidates all records on the other replicas instead.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class CacheInvalidationBus {
+
+    private static final String ALL_RECORDS = "*";
+
+    @Value("${app.cache.invalidation.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.cache.invalidation.batchSize:100}")
+    private int batchSize;
+
+    @Value("${app.cache.invalidation.batchWindowMillis:50}")
+    private long batchWindowMillis;
+
+    @Value("${app.cache.invalidation.maxPending:10000}")
+    private int maxPending;
+
+    @Value("${app.shortcode:#{tarcinapp}}")
+    private String appShortcode;
+
+    @Autowired
+    private RedissonReactiveClient redissonReactiveClient;
+
+    @Autowired(required = false)
+    private List<CacheInvalidationListener> listeners = new ArrayList<>();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private RTopicReactive topic;
+
+    private FluxSink<InvalidatedRecord> pendingInvalidations;
+
+    private Counter publishedEvents;
+
+    private Counter receivedEvents;
+
+    private Counter droppedInvalidations;
+
+    // set when pending invalidations are dropped, the next event invalidates all records
+    private final AtomicBoolean overflowed = new AtomicBoolean(false);
+
+    private Logger logger = LogManager.getLogger(CacheInvalidationBus.class);
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void initBus() {
+
+        if (!this.enabled || this.topic != null) {
+            return;
+        }
+
+        this.publishedEvents = this.eventCounter("published");
+        this.receivedEvents = this.eventCounter("received");
+        this.droppedInvalidations = this.eventCounter("dropped");
+
+        this.topic = this.redissonReactiveClient.getTopic(this.appShortcode + "+cache-invalidation",
+                StringCodec.INSTANCE);
+
+        this.topic.getMessages(String.class)
+                .subscribe(this::onMessage,
+                        e -> logger.error("Cache invalidation subscription is terminated.", e));
+
+        // FluxSink of Flux.create is serialized, it is safe to push from any event loop
+        Flux.<InvalidatedRecord>create(sink -> this.pendingInvalidations = sink)
+                .onBackpressureBuffer(this.maxPending, dropped -> {
+                    this.overflowed.set(true);
+                    this.droppedInvalidations.increment();
+                }, BufferOverflowStrategy.DROP_OLDEST)
+                .bufferTimeout(this.batchSize, Duration.ofMillis(this.batchWindowMillis))
+                .concatMap(this::publish)
+                .subscribe();
+
+        logger.info("Cache invalidation bus is initialized. Node id: " + this.nodeId);
+    }
+
+    /**
+     * Invalidates the record on this node and on the other replicas.
+     *
+     * @param recordId
+     * @param kind kind of the record, may be null
+     */
+    public void invalidate(String recordId, String kind) {
+        this.notifyListeners(recordId, kind);
+        this.enqueue(new InvalidatedRecord(recordId, kind));
+    }
+
+    /**
+     * Invalidates all records on this node and on the other replicas.
+     */
+    public void invalidateAll() {
+        this.notifyListeners(ALL_RECORDS, null);
+        this.enqueue(new InvalidatedRecord(ALL_RECORDS, null));
+    }
+
+    private void enqueue(InvalidatedRecord record) {
+
+        if (this.pendingInvalidations != null) {
+            this.pendingInvalidations.next(record);
+        }
+    }
+
+    private Mono<Void> publish(List<InvalidatedRecord> batch) {
+        CacheInvalidationEvent event = new CacheInvalidationEvent();
+        event.setNodeId(this.nodeId);
+
+        // same record may be written several times within the window
+        Map<String, InvalidatedRecord> distinctRecords = new LinkedHashMap<>();
+
+        if (this.overflowed.getAndSet(false)) {
+            logger.warn("Pending cache invalidations are dropped. All records are invalidated on the other replicas.");
+            event.setAll(true);
+        }
+
+        for (InvalidatedRecord record : batch) {
+
+            if (event.isAll()) {
+                break;
+            }
+
+            if (ALL_RECORDS.equals(record.getRecordId())) {
+                event.setAll(true);
+                break;
+            }
+
+            distinctRecords.putIfAbsent(record.getRecordId(), record);
+        }
+
+        if (!event.isAll()) {
+            event.setRecords(new ArrayList<>(distinctRecords.values()));
+        }
+
+        try {
+            String message = this.objectMapper.writeValueAsString(event);
+
+            return this.topic.publish(message)
+                    .doOnNext(receivers -> {
+                        this.publishedEvents.increment();
+                        logger.debug("Cache invalidation event is published to " + receivers + " receivers. Records: "
+                                + batch.size());
+                    })
+                    .then()
+                    .onErrorResume(e -> {
+                        logger.error("Cache invalidation event can't be published. Other replicas may serve stale data until their caches expire.", e);
+                        return Mono.empty();
+                    });
+        } catch (JsonProcessingException e) {
+            logger.error(e);
+            return Mono.empty();
+        }
+    }
+
+    private void onMessage(String message) {
+        CacheInvalidationEvent event;
+
+        try {
+            event = this.objectMapper.readValue(message, CacheInvalidationEvent.class);
+        } catch (JsonProcessingException e) {
+            logger.error("Cache invalidation event can't be parsed.", e);
+            return;
+        }
+
+        // this node's caches are already invalidated while publishing
+        if (this.nodeId.equals(event.getNodeId())) {
+            return;
+        }
+
+        this.receivedEvents.increment();
+
+        if (event.isAll()) {
+            this.notifyListeners(ALL_RECORDS, null);
+            return;
+        }
+
+        for (InvalidatedRecord record : event.getRecords()) {
+            this.notifyListeners(record.getRecordId(), record.getKind());
+        }
+    }
+
+    private void notifyListeners(String recordId, String kind) {
+
+        for (CacheInvalidationListener listener : this.listeners) {
+
+            try {
+
+                if (ALL_RECORDS.equals(recordId)) {
+                    listener.onAllInvalidated();
+                } else {
+                    listener.onRecordInvalidated(recordId, kind);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Cache invalidation listener " + listener.getClass().getSimpleName() + " failed.", e);
+            }
+        }
+    }
+
+    private Counter eventCounter(String direction) {
+        return Counter.builder("gateway.cache.invalidation.events")
+                .description("Cache invalidation events exchanged between gateway replicas")
+                .tag("direction", direction)
+                .register(this.meterRegistry);
+    }
+}
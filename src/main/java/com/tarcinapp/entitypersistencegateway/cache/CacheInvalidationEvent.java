@@ -0,0 +1,83 @@
+package com.tarcinapp.entitypersistencegateway.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A batch of invalidations published by a gateway node. Field names are kept
+ * short as the event is sent to every replica for every write.
+ */
+@JsonInclude(Include.NON_DEFAULT)
+public class CacheInvalidationEvent {
+
+    @JsonProperty("n")
+    private String nodeId;
+
+    @JsonProperty("a")
+    private boolean all;
+
+    @JsonProperty("r")
+    private List<InvalidatedRecord> records = new ArrayList<>();
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    public void setAll(boolean all) {
+        this.all = all;
+    }
+
+    public List<InvalidatedRecord> getRecords() {
+        return records;
+    }
+
+    public void setRecords(List<InvalidatedRecord> records) {
+        this.records = records;
+    }
+
+    @JsonInclude(Include.NON_NULL)
+    public static class InvalidatedRecord {
+
+        @JsonProperty("i")
+        private String recordId;
+
+        @JsonProperty("k")
+        private String kind;
+
+        public InvalidatedRecord() {
+        }
+
+        public InvalidatedRecord(String recordId, String kind) {
+            this.recordId = recordId;
+            this.kind = kind;
+        }
+
+        public String getRecordId() {
+            return recordId;
+        }
+
+        public void setRecordId(String recordId) {
+            this.recordId = recordId;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public void setKind(String kind) {
+            this.kind = kind;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.tarcinapp.entitypersistencegateway.cache;
+
+/**
+ * Implemented by the components keeping node-local copies of records, or data
+ * derived from records. CacheInvalidationBus notifies every listener bean when
+ * a record is written on this node or on any other gateway replica.
+ */
+public interface CacheInvalidationListener {
+
+    /**
+     * Called when a single record is modified or removed.
+     *
+     * @param recordId
+     * @param kind kind of the record, null if it is not known
+     */
+    void onRecordInvalidated(String recordId, String kind);
+
+    /**
+     * Called when a write may have modified any number of records, such as an
+     * update-all request.
+     */
+    void onAllInvalidated();
+}
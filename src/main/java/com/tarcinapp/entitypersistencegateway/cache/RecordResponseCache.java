@@ -0,0 +1,209 @@
+package com.tarcinapp.entitypersistencegateway.cache;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Keeps the responses of the single record reads (find by id), so that they
+ * can be invalidated when the record is written.
+ *
+ * Responses are kept under the record id, the caller and the request URI, and
+ * bounded by their total body size. An index from the record id to its
+ * response keys lets a record invalidation drop all responses of the record
+ * without scanning the cache. A response whose request started before the
+ * last invalidation of its record is not cached, as it may carry the record
+ * from before the write.
+ *
+ * Cache statistics are exposed through the 'cache.*' meters with the
+ * 'cache=recordResponses' tag.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class RecordResponseCache implements CacheInvalidationListener {
+
+    @Value("${app.caching.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.caching.timeToLive:6h}")
+    private Duration timeToLive;
+
+    @Value("${app.caching.size:50MB}")
+    private DataSize size;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, CachedResponse> cache;
+
+    private final ConcurrentMap<String, Set<String>> keysByRecord = new ConcurrentHashMap<>();
+
+    // last invalidation time of the records, kept as long as a response may be in flight
+    private Cache<String, Long> invalidations;
+
+    private volatile long allInvalidatedAt = System.nanoTime();
+
+    private Logger logger = LogManager.getLogger(RecordResponseCache.class);
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void initCache() {
+
+        if (this.cache != null) {
+            return;
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(this.size.toBytes())
+                .weigher((String key, CachedResponse response) -> response.getBody().length + key.length())
+                .expireAfterWrite(this.timeToLive)
+                // invalidated entries are dropped from the index by the invalidation itself
+                .evictionListener((String key, CachedResponse response, RemovalCause cause) -> {
+                    if (key != null && response != null) {
+                        this.unindex(response.getRecordId(), key);
+                    }
+                })
+                .recordStats()
+                .build();
+
+        this.invalidations = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(1))
+                .build();
+
+        CaffeineCacheMetrics.monitor(this.meterRegistry, this.cache, "recordResponses");
+
+        logger.debug("Record response cache is initialized. Enabled: " + this.enabled + ", size: " + this.size
+                + ", ttl: " + this.timeToLive);
+    }
+
+    public boolean isEnabled() {
+        return this.enabled && this.cache != null;
+    }
+
+    /**
+     * Returns the cached response, or null.
+     *
+     * @param key
+     * @return
+     */
+    public CachedResponse get(String key) {
+        return this.cache.getIfPresent(key);
+    }
+
+    /**
+     * Caches the response, unless the record is invalidated after the request
+     * started.
+     *
+     * @param key
+     * @param response
+     * @param requestStartedAt System.nanoTime() when the request started
+     */
+    public void put(String key, CachedResponse response, long requestStartedAt) {
+
+        if (this.isInvalidatedSince(response.getRecordId(), requestStartedAt)) {
+            logger.debug("Record " + response.getRecordId() + " is invalidated during the request. Response is not cached.");
+            return;
+        }
+
+        this.cache.put(key, response);
+        this.keysByRecord.computeIfAbsent(response.getRecordId(), recordId -> ConcurrentHashMap.newKeySet()).add(key);
+
+        // record may be invalidated before the key is indexed
+        if (this.isInvalidatedSince(response.getRecordId(), requestStartedAt)) {
+            this.cache.invalidate(key);
+        }
+    }
+
+    private boolean isInvalidatedSince(String recordId, long time) {
+        Long invalidatedAt = this.invalidations.getIfPresent(recordId);
+
+        return time - this.allInvalidatedAt <= 0 || (invalidatedAt != null && time - invalidatedAt <= 0);
+    }
+
+    @Override
+    public void onRecordInvalidated(String recordId, String kind) {
+
+        if (this.cache == null) {
+            return;
+        }
+
+        this.invalidations.put(recordId, System.nanoTime());
+
+        Set<String> keys = this.keysByRecord.remove(recordId);
+
+        if (keys != null) {
+            this.cache.invalidateAll(keys);
+        }
+    }
+
+    @Override
+    public void onAllInvalidated() {
+
+        if (this.cache == null) {
+            return;
+        }
+
+        this.allInvalidatedAt = System.nanoTime();
+        this.cache.invalidateAll();
+        this.keysByRecord.clear();
+    }
+
+    private void unindex(String recordId, String key) {
+        this.keysByRecord.computeIfPresent(recordId, (id, keys) -> {
+            keys.remove(key);
+
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    public static class CachedResponse {
+
+        private final String recordId;
+        private final HttpStatusCode statusCode;
+        private final HttpHeaders headers;
+        private final byte[] body;
+
+        public CachedResponse(String recordId, HttpStatusCode statusCode, HttpHeaders headers, byte[] body) {
+            this.recordId = recordId;
+            this.statusCode = statusCode;
+            this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+            this.body = body;
+        }
+
+        public String getRecordId() {
+            return recordId;
+        }
+
+        public HttpStatusCode getStatusCode() {
+            return statusCode;
+        }
+
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
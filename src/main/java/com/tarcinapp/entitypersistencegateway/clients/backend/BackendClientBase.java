@@ -1,7 +1,11 @@
 package com.tarcinapp.entitypersistencegateway.clients.backend;
 
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.event.ContextRefreshedEvent;
@@ -12,18 +16,34 @@ import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 
-import io.netty.channel.ChannelOption;
-import io.netty.handler.timeout.ReadTimeoutHandler;
-import io.netty.handler.timeout.WriteTimeoutHandler;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tarcinapp.entitypersistencegateway.cache.CacheInvalidationListener;
+import com.tarcinapp.entitypersistencegateway.clients.http.AdaptiveTimeouts;
+import com.tarcinapp.entitypersistencegateway.clients.http.HttpClientFactory;
+import com.tarcinapp.entitypersistencegateway.clients.http.RequestHedging;
+import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+import com.tarcinapp.entitypersistencegateway.resilience.DependencyGuards;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import reactor.core.publisher.Mono;
-import reactor.netty.http.client.HttpClient;
-import reactor.netty.tcp.TcpClient;
 
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 
+/**
+ * Client of the entity-persistence-service.
+ *
+ * Original records retrieved for the policy inquiries are kept in a size and
+ * TTL bounded record cache, keyed by the record id. Concurrent lookups of the
+ * same record share a single backend call. Records are evicted through the
+ * CacheInvalidationBus when a write on the record passes through this node or
+ * any other gateway replica. Cache statistics are exposed as 'cache.*' meters with the
+ * 'cache=originalRecords' tag.
+ */
 @Component
 @Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
-public class BackendClientBase implements IBackendClientBase {
+public class BackendClientBase implements IBackendClientBase, CacheInvalidationListener {
     
     private WebClient webClient;
 
@@ -36,32 +56,132 @@ public class BackendClientBase implements IBackendClientBase {
     @Value("${app.backend.protocol:http}")
     private String protocol;
 
+    @Value("${app.backend.recordCache.enabled:true}")
+    private boolean recordCacheEnabled;
+
+    @Value("${app.backend.recordCache.maxSize:10000}")
+    private long recordCacheMaxSize;
+
+    @Value("${app.backend.recordCache.ttlSeconds:30}")
+    private long recordCacheTtlSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private HttpClientFactory httpClientFactory;
+
+    @Autowired
+    private RequestHedging requestHedging;
+
+    @Autowired
+    private AdaptiveTimeouts adaptiveTimeouts;
+
+    @Autowired
+    private DependencyGuards dependencyGuards;
+
     private String url;
 
+    private AsyncCache<String, AnyRecordBase> recordCache;
+
+    private Logger logger = LogManager.getLogger(BackendClientBase.class);
+
     @EventListener(ContextRefreshedEvent.class)
     private void initWebClient() {
         this.url = this.protocol + "://" + this.host + ":" + this.port;
-    
-        TcpClient tcpClient = TcpClient.create().option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
-                .doOnConnected(connection -> {
-                    connection.addHandlerLast(new ReadTimeoutHandler(2000, TimeUnit.MILLISECONDS));
-                    connection.addHandlerLast(new WriteTimeoutHandler(2000, TimeUnit.MILLISECONDS));
-                });
 
         this.webClient = WebClient.builder().baseUrl(url)
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
                 .defaultHeader(HttpHeaders.ACCEPT_CHARSET, "UTF-8")
-                .clientConnector(new ReactorClientHttpConnector(HttpClient.from(tcpClient)))
+                .clientConnector(new ReactorClientHttpConnector(this.httpClientFactory.create("backend")))
             .build();
+
+        this.initRecordCache();
+    }
+
+    private void initRecordCache() {
+
+        if (this.recordCache != null) {
+            return;
+        }
+
+        this.recordCache = Caffeine.newBuilder()
+                .maximumSize(this.recordCacheMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(this.recordCacheTtlSeconds))
+                .recordStats()
+                .buildAsync();
+
+        CaffeineCacheMetrics.monitor(this.meterRegistry, this.recordCache.synchronous(), "originalRecords");
+
+        logger.debug("Record cache is initialized. Enabled: " + this.recordCacheEnabled + ", max size: "
+                + this.recordCacheMaxSize + ", ttl: " + this.recordCacheTtlSeconds + "s");
     }
 
     public <T> Mono<T> get(String path,  Class<T> type) {
+        return this.get(path, type, "get");
+    }
+
+    /**
+     * Each attempt has its own timeout, adapted to the latencies of the
+     * operation and bounded by the request deadline.
+     */
+    private <T> Mono<T> get(String path, Class<T> type, String operation) {
+
+        // GETs are idempotent, thus they can be hedged
+        return this.requestHedging.hedge("backend", () -> this.dependencyGuards.guard("backend",
+            this.adaptiveTimeouts.call("backend", operation, timeout -> webClient
+                .get()
+                .uri(path)
+                .httpRequest(request -> AdaptiveTimeouts.applyTo(request, timeout))
+                .retrieve()
+                .bodyToMono(type))));
+    }
+
+    public Mono<AnyRecordBase> getRecord(String recordId, String path) {
+
+        if (!this.recordCacheEnabled || this.recordCache == null) {
+            return this.get(path, AnyRecordBase.class, "record");
+        }
+
+        return Mono.defer(() -> {
+
+            // failed or empty loads are not kept by the cache, thus 404s are not cached. The load is shared by
+            // concurrent requests, it runs without their deadlines, see AdaptiveTimeouts
+            CompletableFuture<AnyRecordBase> record = this.recordCache.get(recordId,
+                    (id, executor) -> this.get(path, AnyRecordBase.class, "record").toFuture());
+
+            // a cancelled request must not cancel the load shared with other requests
+            return Mono.fromFuture(record.copy());
+        });
+    }
+
+    public Mono<AnyRecordBase> getRecordForUpdate(String path) {
+        return this.get(path, AnyRecordBase.class, "record");
+    }
+
+    public void evictRecord(String recordId) {
+
+        if (this.recordCache == null) {
+            return;
+        }
+
+        // an in-flight load of the record is discarded as well
+        this.recordCache.synchronous().invalidate(recordId);
+
+        logger.debug("Record " + recordId + " is evicted from the record cache.");
+    }
+
+    @Override
+    public void onRecordInvalidated(String recordId, String kind) {
+        this.evictRecord(recordId);
+    }
+
+    @Override
+    public void onAllInvalidated() {
 
-        return webClient
-            .get()
-            .uri(path)
-            .retrieve()
-            .bodyToMono(type);
+        if (this.recordCache != null) {
+            this.recordCache.synchronous().invalidateAll();
+        }
     }
 }
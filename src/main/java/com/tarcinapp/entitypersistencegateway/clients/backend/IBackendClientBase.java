@@ -1,7 +1,37 @@
 package com.tarcinapp.entitypersistencegateway.clients.backend;
 
+import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+
 import reactor.core.publisher.Mono;
 
 public interface IBackendClientBase {
     <T> Mono<T> get(String path,  Class<T> type);
-}
\ No newline at end of file
+
+    /**
+     * Retrieves the record from the given path, through the record cache if it is
+     * enabled. Returned record is shared by concurrent requests and must not be
+     * modified.
+     *
+     * @param recordId id of the record, used as the cache key
+     * @param path path of the record in the backend
+     * @return
+     */
+    Mono<AnyRecordBase> getRecord(String recordId, String path);
+
+    /**
+     * Retrieves the record from the given path, bypassing the record cache. Used
+     * on the write path while the record lock is held, so that the policies see
+     * the latest version of the record.
+     *
+     * @param path path of the record in the backend
+     * @return
+     */
+    Mono<AnyRecordBase> getRecordForUpdate(String path);
+
+    /**
+     * Removes the record from the record cache, if it is there.
+     *
+     * @param recordId
+     */
+    void evictRecord(String recordId);
+}
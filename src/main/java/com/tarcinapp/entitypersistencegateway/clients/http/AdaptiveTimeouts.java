@@ -0,0 +1,212 @@
+package com.tarcinapp.entitypersistencegateway.clients.http;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.http.client.reactive.ClientHttpRequest;
+import org.springframework.stereotype.Component;
+
+import com.tarcinapp.entitypersistencegateway.config.AdaptiveTimeoutConfig;
+import com.tarcinapp.entitypersistencegateway.config.HttpClientPoolConfig;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClientRequest;
+
+/**
+ * Timeouts of the outbound calls, given to each call rather than to the
+ * connection.
+ *
+ * The latencies of each dependency and operation, e.g. a policy of OPA, are
+ * recorded in 'gateway.http.client.latency'. If adaptive timeouts are enabled,
+ * the timeout of a call is the configured percentile of these latencies
+ * multiplied by the factor, clamped between the min and max. Otherwise, or
+ * while less than the minimum samples are recorded in the last minute, the
+ * read timeout of the pool is used. Calls failing after their timeout are
+ * recorded with the time they waited, so that the timeout grows back when
+ * the dependency slows down.
+ *
+ * A call never waits beyond the request deadline in the Reactor context. If
+ * the deadline is already passed, the call is not made. Loads shared by
+ * concurrent requests, the cached decisions and records and the batched
+ * evaluations, are subscribed outside the Reactor context of the requests.
+ * They only get the timeout of the pool or the adaptive one, and each waiting
+ * request is still cut at its own deadline by ApplyRequestDeadline.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class AdaptiveTimeouts {
+
+    @Autowired
+    private AdaptiveTimeoutConfig adaptiveTimeoutConfig;
+
+    @Autowired
+    private HttpClientPoolConfig httpClientPoolConfig;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+
+    /**
+     * Makes the call with the timeout of the dependency and operation, bounded by
+     * the request deadline.
+     *
+     * @param <T>
+     * @param dependency name of the dependency, e.g. backend or opa
+     * @param operation  name of the operation, e.g. a policy name
+     * @param call       receives the timeout of the call
+     * @return
+     */
+    public <T> Mono<T> call(String dependency, String operation, Function<Duration, Mono<T>> call) {
+
+        return Mono.deferContextual(context -> {
+            LatencyTracker tracker = this.trackers.computeIfAbsent(dependency + "|" + operation,
+                    key -> new LatencyTracker(dependency, operation));
+
+            Duration timeout = tracker.timeout(
+                    Duration.ofMillis(this.httpClientPoolConfig.getPool(dependency).getReadTimeoutMillis()));
+            Duration remaining = RequestDeadline.remaining(context);
+            boolean cutByDeadline = false;
+
+            if (remaining != null) {
+
+                if (remaining.isNegative() || remaining.isZero()) {
+                    return Mono.error(RequestDeadline.exceeded());
+                }
+
+                if (remaining.compareTo(timeout) < 0) {
+                    timeout = remaining;
+                    cutByDeadline = true;
+                }
+            }
+
+            long start = System.nanoTime();
+            long timeoutNanos = timeout.toNanos();
+            boolean recordTimeouts = !cutByDeadline;
+
+            return call.apply(timeout)
+                    .doOnSuccess(result -> tracker.record(System.nanoTime() - start))
+                    .doOnError(e -> {
+                        long elapsed = System.nanoTime() - start;
+
+                        // the call took at least its timeout, a shorter deadline tells nothing of the latency
+                        if (recordTimeouts && elapsed >= timeoutNanos) {
+                            tracker.record(elapsed);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Sets the response timeout of a WebClient request.
+     *
+     * @param request
+     * @param timeout
+     */
+    public static void applyTo(ClientHttpRequest request, Duration timeout) {
+        HttpClientRequest reactorRequest = request.getNativeRequest();
+
+        reactorRequest.responseTimeout(timeout);
+    }
+
+    private class LatencyTracker {
+
+        // same as the expiry of the percentiles
+        private final long windowNanos = TimeUnit.MINUTES.toNanos(1);
+
+        private final Timer latency;
+
+        // samples of the current and the previous window, the count of the timer is cumulative
+        private final LongAdder windowSamples = new LongAdder();
+        private volatile long previousWindowSamples;
+        private volatile long windowStartedAt = System.nanoTime();
+
+        private volatile Duration adaptiveTimeout;
+        private volatile long timeoutReadAt;
+
+        LatencyTracker(String dependency, String operation) {
+            this.latency = Timer.builder("gateway.http.client.latency")
+                    .description("Latency of the outbound calls, used to compute their timeouts")
+                    .tag("client", dependency)
+                    .tag("operation", operation)
+                    .publishPercentiles(adaptiveTimeoutConfig.getPercentile())
+                    .distributionStatisticExpiry(Duration.ofMinutes(1))
+                    .register(meterRegistry);
+        }
+
+        void record(long nanos) {
+            this.latency.record(nanos, TimeUnit.NANOSECONDS);
+            this.rotateWindow(System.nanoTime());
+            this.windowSamples.increment();
+        }
+
+        Duration timeout(Duration defaultTimeout) {
+            long now = System.nanoTime();
+
+            if (!adaptiveTimeoutConfig.isEnabled() || this.recentSamples(now) < adaptiveTimeoutConfig.getMinSamples()) {
+                return defaultTimeout;
+            }
+
+            // percentiles are read from a snapshot, at most once a second
+            if (this.adaptiveTimeout == null || now - this.timeoutReadAt > TimeUnit.SECONDS.toNanos(1)) {
+                this.timeoutReadAt = now;
+                this.adaptiveTimeout = this.computeTimeout(defaultTimeout);
+            }
+
+            return this.adaptiveTimeout;
+        }
+
+        private Duration computeTimeout(Duration defaultTimeout) {
+
+            for (ValueAtPercentile value : this.latency.takeSnapshot().percentileValues()) {
+
+                // no latency is left in the snapshot
+                if (value.value() <= 0) {
+                    return defaultTimeout;
+                }
+
+                long millis = (long) (value.value(TimeUnit.MILLISECONDS) * adaptiveTimeoutConfig.getFactor());
+
+                return Duration.ofMillis(Math.min(adaptiveTimeoutConfig.getMaxMillis(),
+                        Math.max(adaptiveTimeoutConfig.getMinMillis(), millis)));
+            }
+
+            return defaultTimeout;
+        }
+
+        private long recentSamples(long now) {
+            this.rotateWindow(now);
+
+            return this.previousWindowSamples + this.windowSamples.sum();
+        }
+
+        private void rotateWindow(long now) {
+
+            if (now - this.windowStartedAt < this.windowNanos) {
+                return;
+            }
+
+            synchronized (this) {
+                long elapsed = now - this.windowStartedAt;
+
+                if (elapsed < this.windowNanos) {
+                    return;
+                }
+
+                long samples = this.windowSamples.sumThenReset();
+                this.previousWindowSamples = elapsed < 2 * this.windowNanos ? samples : 0;
+                this.windowStartedAt = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.tarcinapp.entitypersistencegateway.clients.http;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.tarcinapp.entitypersistencegateway.config.HttpClientPoolConfig;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Creates the outbound HTTP clients of the gateway, each with its own named
+ * connection pool configured in app.httpClients.pools.
+ *
+ * Connections are kept alive, evicted when they stay idle or reach their max
+ * life, and requests waiting for a connection are bounded by count and time.
+ * Pools report the 'reactor.netty.connection.provider.*' gauges (total,
+ * active, idle and pending connections) tagged with the pool name.
+ *
+ * The read timeout is applied per response, not per connection, so idle
+ * pooled connections are not closed by it.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class HttpClientFactory {
+
+    @Autowired
+    private HttpClientPoolConfig httpClientPoolConfig;
+
+    private final Map<String, ConnectionProvider> connectionProviders = new ConcurrentHashMap<>();
+
+    private Logger logger = LogManager.getLogger(HttpClientFactory.class);
+
+    /**
+     * Returns a client using the named pool. Clients of the same name share the
+     * pool.
+     *
+     * @param name name of the dependency, e.g. backend or opa
+     * @return
+     */
+    public HttpClient create(String name) {
+        HttpClientPoolConfig.Pool pool = this.httpClientPoolConfig.getPool(name);
+        ConnectionProvider connectionProvider = this.connectionProviders.computeIfAbsent(name,
+                poolName -> this.newConnectionProvider(poolName, pool));
+
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .keepAlive(true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, pool.getConnectTimeoutMillis())
+                .responseTimeout(Duration.ofMillis(pool.getReadTimeoutMillis()))
+                .doOnConnected(connection -> connection
+                        .addHandlerLast(new WriteTimeoutHandler(pool.getWriteTimeoutMillis(), TimeUnit.MILLISECONDS)));
+
+        if (pool.isH2c()) {
+            httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+        }
+
+        return httpClient;
+    }
+
+    private ConnectionProvider newConnectionProvider(String name, HttpClientPoolConfig.Pool pool) {
+
+        logger.debug("Connection pool " + name + " is created. Max connections: " + pool.getMaxConnections()
+                + ", max pending: " + pool.getPendingAcquireMaxCount() + ", h2c: " + pool.isH2c());
+
+        return ConnectionProvider.builder(name)
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.ofMillis(pool.getPendingAcquireTimeoutMillis()))
+                .maxIdleTime(Duration.ofSeconds(pool.getMaxIdleSeconds()))
+                .maxLifeTime(Duration.ofSeconds(pool.getMaxLifeSeconds()))
+                .evictInBackground(Duration.ofSeconds(pool.getEvictInBackgroundSeconds()))
+                .metrics(true)
+                .build();
+    }
+
+    @EventListener(ContextClosedEvent.class)
+    private void disposePools() {
+        this.connectionProviders.values().forEach(ConnectionProvider::dispose);
+        this.connectionProviders.clear();
+    }
+}
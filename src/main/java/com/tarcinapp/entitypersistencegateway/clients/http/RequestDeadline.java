@@ -0,0 +1,53 @@
+package com.tarcinapp.entitypersistencegateway.clients.http;
+
+import java.time.Duration;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+/**
+ * Deadline of the request, carried in the Reactor context of the filter chain.
+ * Outbound calls made for the request never wait beyond it.
+ */
+public final class RequestDeadline {
+
+    private static final String CONTEXT_KEY = "RequestDeadline";
+
+    private RequestDeadline() {
+    }
+
+    /**
+     * Returns a context carrying the deadline, which is the given budget from now.
+     *
+     * @param budget
+     * @return
+     */
+    public static Context of(Duration budget) {
+        return Context.of(CONTEXT_KEY, System.nanoTime() + budget.toNanos());
+    }
+
+    /**
+     * Returns the time left until the deadline, or null if there is no deadline
+     * in the context. Zero or negative if the deadline is passed.
+     *
+     * @param context
+     * @return
+     */
+    public static Duration remaining(ContextView context) {
+
+        if (!context.hasKey(CONTEXT_KEY)) {
+            return null;
+        }
+
+        long deadline = context.get(CONTEXT_KEY);
+
+        return Duration.ofNanos(deadline - System.nanoTime());
+    }
+
+    public static ResponseStatusException exceeded() {
+        return new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Request deadline is exceeded");
+    }
+}
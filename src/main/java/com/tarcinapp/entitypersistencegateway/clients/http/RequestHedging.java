@@ -0,0 +1,178 @@
+package com.tarcinapp.entitypersistencegateway.clients.http;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import com.tarcinapp.entitypersistencegateway.config.HedgingConfig;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import reactor.core.publisher.Mono;
+
+/**
+ * Hedges the idempotent outbound calls against slow upstream instances.
+ *
+ * If a call is not answered within the hedging delay, an identical call is
+ * sent. The first answer wins and the other call is cancelled. The delay is
+ * either fixed, or the configured percentile of the recent call latencies of
+ * the dependency.
+ *
+ * Hedges are limited by a budget: each call earns a fraction of a hedge, as
+ * much as the configured percentage, and each hedge spends a whole one. When
+ * the upstream is overloaded and many calls are slow, the budget runs out
+ * instead of doubling the load.
+ *
+ * Hedges sent and won are counted in 'gateway.http.client.hedges.sent' and
+ * 'gateway.http.client.hedges.won', tagged with the dependency name.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class RequestHedging {
+
+    @Autowired
+    private HedgingConfig hedgingConfig;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Hedger> hedgers = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the call, hedged if hedging is enabled for the dependency. The
+     * supplier is called once for each attempt.
+     *
+     * @param <T>
+     * @param name name of the dependency, e.g. backend or opa
+     * @param call
+     * @return
+     */
+    public <T> Mono<T> hedge(String name, Supplier<Mono<T>> call) {
+        HedgingConfig.Hedge hedge = this.hedgingConfig.getHedge(name);
+
+        if (!hedge.isEnabled()) {
+            return call.get();
+        }
+
+        return this.hedgers.computeIfAbsent(name, client -> new Hedger(client, hedge, this.meterRegistry))
+                .hedge(call);
+    }
+
+    private static class Hedger {
+
+        private static final long TOKEN = 1000;
+        private static final long MAX_TOKENS = 10 * TOKEN;
+        private static final long DELAY_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final HedgingConfig.Hedge hedge;
+        private final Timer latency;
+        private final Counter hedgesSent;
+        private final Counter hedgesWon;
+
+        // budget in thousandths of a hedge
+        private final AtomicLong tokens = new AtomicLong(MAX_TOKENS);
+        private final long tokensPerCall;
+
+        private volatile long percentileDelayMillis;
+        private volatile long percentileReadAt;
+
+        Hedger(String client, HedgingConfig.Hedge hedge, MeterRegistry meterRegistry) {
+            this.hedge = hedge;
+            this.tokensPerCall = Math.round(hedge.getBudgetPercent() * TOKEN / 100);
+
+            this.latency = Timer.builder("gateway.http.client.hedging.latency")
+                    .description("Latency of the hedged calls, used to compute the hedging delay")
+                    .tag("client", client)
+                    .publishPercentiles(hedge.getPercentile())
+                    .distributionStatisticExpiry(Duration.ofMinutes(1))
+                    .register(meterRegistry);
+            this.hedgesSent = Counter.builder("gateway.http.client.hedges.sent")
+                    .tag("client", client)
+                    .register(meterRegistry);
+            this.hedgesWon = Counter.builder("gateway.http.client.hedges.won")
+                    .tag("client", client)
+                    .register(meterRegistry);
+        }
+
+        <T> Mono<T> hedge(Supplier<Mono<T>> call) {
+            this.tokens.updateAndGet(tokens -> Math.min(MAX_TOKENS, tokens + this.tokensPerCall));
+
+            long delay = this.delayMillis();
+
+            // no latency recorded yet
+            if (delay <= 0) {
+                return this.timed(call.get());
+            }
+
+            Mono<T> secondary = Mono.delay(Duration.ofMillis(delay))
+                    .flatMap(tick -> {
+
+                        if (!this.spendToken()) {
+                            return Mono.<T>never();
+                        }
+
+                        this.hedgesSent.increment();
+
+                        // the loser is cancelled, thus only the winning hedge emits
+                        return this.timed(call.get()).doOnNext(result -> this.hedgesWon.increment());
+                    });
+
+            return Mono.firstWithSignal(this.timed(call.get()), secondary);
+        }
+
+        private boolean spendToken() {
+            long current;
+
+            do {
+                current = this.tokens.get();
+
+                if (current < TOKEN) {
+                    return false;
+                }
+            } while (!this.tokens.compareAndSet(current, current - TOKEN));
+
+            return true;
+        }
+
+        private long delayMillis() {
+
+            if (this.hedge.getDelayMillis() > 0) {
+                return this.hedge.getDelayMillis();
+            }
+
+            long now = System.nanoTime();
+
+            // percentiles are read from a snapshot, at most once a second
+            if (now - this.percentileReadAt > DELAY_REFRESH_NANOS) {
+                this.percentileReadAt = now;
+
+                for (ValueAtPercentile value : this.latency.takeSnapshot().percentileValues()) {
+                    long millis = (long) value.value(TimeUnit.MILLISECONDS);
+
+                    this.percentileDelayMillis = millis > 0 ? Math.max(millis, this.hedge.getMinDelayMillis()) : 0;
+                }
+            }
+
+            return this.percentileDelayMillis;
+        }
+
+        private <T> Mono<T> timed(Mono<T> call) {
+
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+
+                return call.doOnSuccess(result -> this.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+            });
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.tarcinapp.entitypersistencegateway.clients.local;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.tarcinapp.entitypersistencegateway.GatewaySecurityContext;
+import com.tarcinapp.entitypersistencegateway.auth.IAuthorizationClient;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyResult;
+import com.tarcinapp.entitypersistencegateway.clients.opa.OpaClient;
+import com.tarcinapp.entitypersistencegateway.config.LocalPolicyConfig;
+import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Decides simple role and ownership policies in the gateway, and delegates the
+ * rest to OPA.
+ *
+ * Rules configured in app.localPolicies are compiled into a lookup by policy
+ * name. A rule can only allow: if the user has one of the rule's roles, or owns
+ * the original record, the request is allowed without calling OPA. Otherwise
+ * the decision is not conclusive, as the policy may still allow the request for
+ * some other reason, and the policy is evaluated by OPA. Policies with results
+ * other than allow/reason are always evaluated by OPA. Policies with a rule
+ * are not sent to OPA in a policy bundle, so that the rule is consulted.
+ *
+ * In SHADOW mode OPA decides all policies, and the conclusive local decisions
+ * are compared with OPA's. Mismatches are logged and counted by
+ * 'gateway.policy.local.differential'.
+ */
+@Primary
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class LocalDecisionEngine implements IAuthorizationClient {
+
+    @Autowired
+    private OpaClient opaClient;
+
+    @Autowired
+    private LocalPolicyConfig localPolicyConfig;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.shortcode:#{tarcinapp}}")
+    private String appShortcode;
+
+    private Map<String, CompiledRule> rules = Collections.emptyMap();
+
+    private Counter localDecisions;
+    private Counter delegatedDecisions;
+    private Counter matchingDecisions;
+    private Counter mismatchingDecisions;
+
+    private Logger logger = LogManager.getLogger(LocalDecisionEngine.class);
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void compileRules() {
+        Map<String, CompiledRule> compiledRules = new HashMap<>();
+
+        for (LocalPolicyConfig.Rule rule : this.localPolicyConfig.getRules()) {
+            Set<String> roles = new HashSet<>();
+
+            for (String role : rule.getRoles()) {
+                roles.add(this.appShortcode + "." + role);
+            }
+
+            compiledRules.put(rule.getPolicyName(),
+                    new CompiledRule(roles, rule.isAllowOwnerUsers(), rule.isAllowOwnerGroups()));
+        }
+
+        this.rules = compiledRules;
+
+        this.localDecisions = Counter.builder("gateway.policy.local.decisions")
+                .tag("decidedBy", "local")
+                .register(this.meterRegistry);
+        this.delegatedDecisions = Counter.builder("gateway.policy.local.decisions")
+                .tag("decidedBy", "opa")
+                .register(this.meterRegistry);
+        this.matchingDecisions = Counter.builder("gateway.policy.local.differential")
+                .tag("result", "match")
+                .register(this.meterRegistry);
+        this.mismatchingDecisions = Counter.builder("gateway.policy.local.differential")
+                .tag("result", "mismatch")
+                .register(this.meterRegistry);
+
+        logger.debug(compiledRules.size() + " local policy rules are compiled. Enabled: "
+                + this.localPolicyConfig.isEnabled() + ", mode: " + this.localPolicyConfig.getMode());
+    }
+
+    @Override
+    public Mono<PolicyResult> executePolicy(PolicyData data) {
+        return this.decide(data, () -> this.opaClient.executePolicy(data));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> executePolicy(PolicyData data, Class<T> type) {
+
+        if (!PolicyResult.class.equals(type)) {
+            return this.opaClient.executePolicy(data, type);
+        }
+
+        return (Mono<T>) this.decide(data, () -> this.opaClient.executePolicy(data, PolicyResult.class));
+    }
+
+    /**
+     * Policies with a local rule are left out of the bundle. RoutePolicyBundle
+     * evaluates the policies missing in the bundle one by one, thus they are
+     * still decided locally, and by OPA only when the rule is not conclusive.
+     */
+    @Override
+    public Mono<Map<String, Object>> executePolicies(PolicyData data, List<String> policyNames) {
+
+        if (!this.localPolicyConfig.isEnabled() || this.rules.isEmpty()) {
+            return this.opaClient.executePolicies(data, policyNames);
+        }
+
+        List<String> opaPolicies = new ArrayList<>();
+
+        for (String policyName : policyNames) {
+
+            if (!this.rules.containsKey(policyName)) {
+                opaPolicies.add(policyName);
+            }
+        }
+
+        if (opaPolicies.isEmpty()) {
+            return Mono.just(Collections.emptyMap());
+        }
+
+        return this.opaClient.executePolicies(data, opaPolicies);
+    }
+
+    private Mono<PolicyResult> decide(PolicyData data, Supplier<Mono<PolicyResult>> opaDecision) {
+
+        if (!this.localPolicyConfig.isEnabled()) {
+            return opaDecision.get();
+        }
+
+        CompiledRule rule = this.rules.get(data.getPolicyName());
+        PolicyResult localDecision = rule != null ? rule.evaluate(data) : null;
+
+        if (this.localPolicyConfig.getMode() == LocalPolicyConfig.Mode.SHADOW) {
+            return opaDecision.get().doOnNext(decision -> this.compare(data, localDecision, decision));
+        }
+
+        if (localDecision != null) {
+            this.localDecisions.increment();
+            return Mono.just(localDecision);
+        }
+
+        this.delegatedDecisions.increment();
+        return opaDecision.get();
+    }
+
+    private void compare(PolicyData data, PolicyResult localDecision, PolicyResult opaDecision) {
+
+        if (localDecision == null) {
+            return;
+        }
+
+        if (localDecision.isAllow() == opaDecision.isAllow()) {
+            this.matchingDecisions.increment();
+            return;
+        }
+
+        this.mismatchingDecisions.increment();
+
+        logger.warn("Local decision of policy " + data.getPolicyName() + " does not match OPA's. Local: "
+                + localDecision.getReason() + ", OPA allow: " + opaDecision.isAllow() + ", reason: "
+                + opaDecision.getReason());
+    }
+
+    static class CompiledRule {
+
+        private final Set<String> roles;
+        private final boolean allowOwnerUsers;
+        private final boolean allowOwnerGroups;
+
+        CompiledRule(Set<String> roles, boolean allowOwnerUsers, boolean allowOwnerGroups) {
+            this.roles = roles;
+            this.allowOwnerUsers = allowOwnerUsers;
+            this.allowOwnerGroups = allowOwnerGroups;
+        }
+
+        /**
+         * @return an allowing decision, or null if the rule is not conclusive
+         */
+        PolicyResult evaluate(PolicyData data) {
+            GatewaySecurityContext securityContext = data.getSecurityContext();
+
+            if (securityContext == null || securityContext.getAuthSubject() == null) {
+                return null;
+            }
+
+            if (securityContext.getRoles() != null) {
+
+                for (String role : securityContext.getRoles()) {
+
+                    if (this.roles.contains(role)) {
+                        return allow("Allowed locally by role " + role);
+                    }
+                }
+            }
+
+            AnyRecordBase originalRecord = data.getOriginalRecord();
+
+            if (originalRecord == null) {
+                return null;
+            }
+
+            if (this.allowOwnerUsers && originalRecord.get_ownerUsers() != null
+                    && originalRecord.get_ownerUsers().contains(securityContext.getAuthSubject())) {
+                return allow("Allowed locally as an owner user");
+            }
+
+            if (this.allowOwnerGroups && originalRecord.get_ownerGroups() != null
+                    && securityContext.getGroups() != null
+                    && !Collections.disjoint(originalRecord.get_ownerGroups(), securityContext.getGroups())) {
+                return allow("Allowed locally as an owner group member");
+            }
+
+            return null;
+        }
+
+        private static PolicyResult allow(String reason) {
+            PolicyResult result = new PolicyResult();
+            result.setAllow(true);
+            result.setReason(reason);
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.tarcinapp.entitypersistencegateway.clients.opa;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.cache.CacheInvalidationListener;
+import com.tarcinapp.entitypersistencegateway.config.StaleDecisionConfig;
+import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import reactor.core.publisher.Mono;
+
+/**
+ * Caches the policy decisions of OPA.
+ *
+ * Filters of a request, and requests of the same user on the same resource,
+ * often ask OPA the same question. A decision is cached under a key built from
+ * the policy name and a digest of the serialized policy inquiry data: the
+ * token, the method, the path, the query parameters, the request payload and
+ * the original record. A new version of the original record is a new key.
+ * Concurrent evaluations of the same key share a single OPA call.
+ *
+ * Cached decisions are shared by the requests and must not be modified.
+ * Entries of a record are dropped when the record is invalidated through the
+ * CacheInvalidationBus. Keys are indexed by the record id, thus an
+ * invalidation only touches the entries of the record.
+ *
+ * Decisions of the policies listed in app.opa.decisionCache.stale are kept for
+ * a grace period after they expire. An expired decision is served while a
+ * single background evaluation revalidates it, so a slow OPA does not hold the
+ * requests of these policies. If the revalidation fails, the expired decision
+ * keeps being served until the grace period ends.
+ *
+ * Besides the 'cache.*' meters with the 'cache=policyDecisions' tag, the
+ * latency of the OPA calls is recorded in 'gateway.opa.evaluation' and the
+ * time saved by the cache hits, estimated by the average OPA latency, is
+ * counted in 'gateway.opa.decision.cache.saved'. Expired decisions served are
+ * counted in 'gateway.opa.decision.cache.stale'.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class DecisionCache implements CacheInvalidationListener {
+
+    @Value("${app.opa.decisionCache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.opa.decisionCache.maxSize:10000}")
+    private long maxSize;
+
+    @Value("${app.opa.decisionCache.ttlSeconds:5}")
+    private long ttlSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PolicyInputWriter policyInputWriter;
+
+    @Autowired
+    private StaleDecisionConfig staleDecisionConfig;
+
+    private AsyncCache<String, Decision> cache;
+
+    private final ConcurrentMap<String, Set<String>> keysByRecord = new ConcurrentHashMap<>();
+
+    private Timer evaluationTimer;
+
+    private Counter savedTime;
+
+    private Counter staleDecisions;
+
+    // moving average of OPA latency in nanoseconds, used to estimate the time saved by a hit
+    private final AtomicLong averageEvaluationNanos = new AtomicLong();
+
+    private Logger logger = LogManager.getLogger(DecisionCache.class);
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void initCache() {
+
+        if (this.cache != null) {
+            return;
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(this.maxSize)
+                .expireAfter(new DecisionExpiry(Duration.ofSeconds(this.ttlSeconds).toNanos(),
+                        Duration.ofSeconds(this.ttlSeconds + this.staleDecisionConfig.getGraceSeconds()).toNanos()))
+                // invalidated entries are dropped from the index by the invalidation itself, failed and empty
+                // loads by the load
+                .evictionListener((String key, Decision decision, RemovalCause cause) -> {
+                    if (key != null) {
+                        this.unindex(key);
+                    }
+                })
+                .recordStats()
+                .buildAsync();
+
+        CaffeineCacheMetrics.monitor(this.meterRegistry, this.cache.synchronous(), "policyDecisions");
+
+        this.evaluationTimer = Timer.builder("gateway.opa.evaluation")
+                .description("Latency of the policy evaluations sent to OPA")
+                .register(this.meterRegistry);
+
+        this.savedTime = Counter.builder("gateway.opa.decision.cache.saved")
+                .description("Estimated OPA latency saved by the policy decision cache")
+                .baseUnit("seconds")
+                .register(this.meterRegistry);
+
+        this.staleDecisions = Counter.builder("gateway.opa.decision.cache.stale")
+                .description("Expired policy decisions served while they are revalidated")
+                .register(this.meterRegistry);
+
+        logger.debug("Policy decision cache is initialized. Enabled: " + this.enabled + ", max size: "
+                + this.maxSize + ", ttl: " + this.ttlSeconds + "s, stale decisions: "
+                + this.staleDecisionConfig.isEnabled() + ", grace: " + this.staleDecisionConfig.getGraceSeconds() + "s");
+    }
+
+    /**
+     * Returns the cached decision of the policy for the given data, or evaluates
+     * it with the given evaluation.
+     *
+     * @param <T>
+     * @param data
+     * @param resultType type of the decision, part of the key
+     * @param evaluation
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> get(PolicyData data, Class<T> resultType, Supplier<Mono<T>> evaluation) {
+
+        if (!this.enabled || this.cache == null) {
+            return this.timed(evaluation.get());
+        }
+
+        return Mono.defer(() -> {
+            String key = this.keyOf(data, resultType);
+            String recordId = recordIdOf(key);
+
+            // indexed before the load, so that an invalidation discards the load in flight as well
+            if (!recordId.isEmpty()) {
+                this.keysByRecord.computeIfAbsent(recordId, id -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+
+            AtomicBoolean evaluated = new AtomicBoolean(false);
+            boolean staleAllowed = this.staleDecisionConfig.isStaleAllowed(data.getPolicyName());
+
+            CompletableFuture<Decision> decision = this.cache.get(key, (k, executor) -> {
+                evaluated.set(true);
+
+                // the load is shared by concurrent requests, it runs without their deadlines, see AdaptiveTimeouts
+                return this.timed(evaluation.get())
+                        .map(result -> new Decision(result, staleAllowed))
+                        // removed by the cache without notifying the eviction listener, e.g. while OPA is failing
+                        .doOnError(e -> this.unindex(k))
+                        .switchIfEmpty(Mono.fromRunnable(() -> this.unindex(k)))
+                        .toFuture();
+            });
+
+            if (!evaluated.get()) {
+                this.savedTime.increment(this.averageEvaluationNanos.get() / 1_000_000_000d);
+                this.revalidateIfExpired(key, decision, evaluation);
+            }
+
+            // a cancelled request must not cancel the evaluation shared with other requests
+            return Mono.fromFuture(decision.copy())
+                    .map(result -> (T) result.value);
+        });
+    }
+
+    /**
+     * Only decisions allowed to be stale outlive their ttl in the cache. The
+     * first request reading an expired decision starts the revalidation, the
+     * others keep reading the expired decision until it is replaced.
+     */
+    private <T> void revalidateIfExpired(String key, CompletableFuture<Decision> cached, Supplier<Mono<T>> evaluation) {
+
+        if (!cached.isDone() || cached.isCompletedExceptionally()) {
+            return;
+        }
+
+        Decision decision = cached.join();
+
+        if (!decision.staleAllowed
+                || System.nanoTime() - decision.evaluatedAt < Duration.ofSeconds(this.ttlSeconds).toNanos()) {
+            return;
+        }
+
+        this.staleDecisions.increment();
+
+        if (!decision.revalidating.compareAndSet(false, true)) {
+            return;
+        }
+
+        this.timed(evaluation.get())
+                .subscribe(result -> this.cache.asMap().replace(key, cached,
+                        CompletableFuture.completedFuture(new Decision(result, decision.staleAllowed))),
+                        e -> {
+                            // let the next request try again, the expired decision is served meanwhile
+                            decision.revalidating.set(false);
+
+                            logger.warn("Expired policy decision can't be revalidated. Serving the expired decision.", e);
+                        });
+    }
+
+    @Override
+    public void onRecordInvalidated(String recordId, String kind) {
+
+        if (this.cache == null) {
+            return;
+        }
+
+        Set<String> keys = this.keysByRecord.remove(recordId);
+
+        if (keys != null) {
+            this.cache.synchronous().invalidateAll(keys);
+        }
+    }
+
+    @Override
+    public void onAllInvalidated() {
+
+        if (this.cache != null) {
+            this.cache.synchronous().invalidateAll();
+            this.keysByRecord.clear();
+        }
+    }
+
+    private void unindex(String key) {
+        this.keysByRecord.computeIfPresent(recordIdOf(key), (id, keys) -> {
+            keys.remove(key);
+
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private <T> Mono<T> timed(Mono<T> evaluation) {
+
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+
+            return evaluation.doOnSuccess(result -> {
+                long elapsed = System.nanoTime() - start;
+
+                this.evaluationTimer.record(Duration.ofNanos(elapsed));
+                this.averageEvaluationNanos.updateAndGet(average -> average == 0
+                        ? elapsed
+                        : average + (elapsed - average) / 16);
+            });
+        });
+    }
+
+    /**
+     * Key is in the form of recordId|policyName|resultType|digest. Record id is
+     * empty for the requests without an original record.
+     */
+    private String keyOf(PolicyData data, Class<?> resultType) {
+        MessageDigest digest = newDigest();
+        AnyRecordBase originalRecord = data.getOriginalRecord();
+
+        // the input is serialized once per request and reused by the OPA call on a miss
+        try {
+            digest.update(this.policyInputWriter.serializeWithoutPolicyName(data));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Policy data can't be serialized for the decision cache key", e);
+        }
+
+        String recordId = originalRecord != null && originalRecord.get_id() != null ? originalRecord.get_id() : "";
+
+        return recordId + "|" + data.getPolicyName() + "|" + resultType.getName() + "|"
+                + Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+    }
+
+    private static String recordIdOf(String key) {
+        return key.substring(0, key.indexOf('|'));
+    }
+
+    private static class Decision {
+
+        private final Object value;
+        private final boolean staleAllowed;
+        private final long evaluatedAt = System.nanoTime();
+        private final AtomicBoolean revalidating = new AtomicBoolean(false);
+
+        Decision(Object value, boolean staleAllowed) {
+            this.value = value;
+            this.staleAllowed = staleAllowed;
+        }
+    }
+
+    /**
+     * Decisions allowed to be stale are kept until the end of their grace
+     * period, the others until their ttl.
+     */
+    private static class DecisionExpiry implements Expiry<String, Decision> {
+
+        private final long ttlNanos;
+        private final long staleTtlNanos;
+
+        DecisionExpiry(long ttlNanos, long staleTtlNanos) {
+            this.ttlNanos = ttlNanos;
+            this.staleTtlNanos = staleTtlNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(String key, Decision decision, long currentTime) {
+            return decision.staleAllowed ? this.staleTtlNanos : this.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Decision decision, long currentTime, long currentDuration) {
+            return this.expireAfterCreate(key, decision, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Decision decision, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.tarcinapp.entitypersistencegateway.clients.opa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+
+/**
+ * Builds the input of a policy with only the paths the policy needs.
+ *
+ * Paths are compiled into a list of copiers once, so projecting an input only
+ * calls getters and setters. A path is either a field of the policy inquiry
+ * data like 'httpMethod', or a field of the request payload or the original
+ * record like 'originalRecord._ownerUsers'. Record fields which are not
+ * managed fields are looked up in the custom fields of the record. A record
+ * path without a field, like 'requestPayload', copies the whole record.
+ *
+ * Caller's identity, the encoded JWT or the claims, is always kept.
+ */
+public class InputProjection {
+
+    private static final Map<String, BiConsumer<PolicyData, PolicyData>> DATA_FIELDS = new HashMap<>();
+    private static final Map<String, BiConsumer<AnyRecordBase, AnyRecordBase>> RECORD_FIELDS = new HashMap<>();
+
+    private static final String REQUEST_PAYLOAD = "requestPayload";
+    private static final String ORIGINAL_RECORD = "originalRecord";
+
+    static {
+        DATA_FIELDS.put("appShortcode", (s, t) -> t.setAppShortcode(s.getAppShortcode()));
+        DATA_FIELDS.put("httpMethod", (s, t) -> t.setHttpMethod(s.getHttpMethod()));
+        DATA_FIELDS.put("requestPath", (s, t) -> t.setRequestPath(s.getRequestPath()));
+        DATA_FIELDS.put("queryParams", (s, t) -> t.setQueryParams(s.getQueryParams()));
+        DATA_FIELDS.put(REQUEST_PAYLOAD, (s, t) -> t.setRequestPayload(s.getRequestPayload()));
+        DATA_FIELDS.put(ORIGINAL_RECORD, (s, t) -> t.setOriginalRecord(s.getOriginalRecord()));
+
+        RECORD_FIELDS.put("_id", (s, t) -> t.set_id(s.get_id()));
+        RECORD_FIELDS.put("_kind", (s, t) -> t.set_kind(s.get_kind()));
+        RECORD_FIELDS.put("_name", (s, t) -> t.set_name(s.get_name()));
+        RECORD_FIELDS.put("_slug", (s, t) -> t.set_slug(s.get_slug()));
+        RECORD_FIELDS.put("_visibility", (s, t) -> t.set_visibility(s.get_visibility()));
+        RECORD_FIELDS.put("_ownerUsers", (s, t) -> t.set_ownerUsers(s.get_ownerUsers()));
+        RECORD_FIELDS.put("_ownerGroups", (s, t) -> t.set_ownerGroups(s.get_ownerGroups()));
+        RECORD_FIELDS.put("_ownerUsersCount", (s, t) -> t.set_ownerUsersCount(s.get_ownerUsersCount()));
+        RECORD_FIELDS.put("_ownerGroupsCount", (s, t) -> t.set_ownerGroupsCount(s.get_ownerGroupsCount()));
+        RECORD_FIELDS.put("_viewerUsers", (s, t) -> t.set_viewerUsers(s.get_viewerUsers()));
+        RECORD_FIELDS.put("_viewerGroups", (s, t) -> t.set_viewerGroups(s.get_viewerGroups()));
+        RECORD_FIELDS.put("_viewerUsersCount", (s, t) -> t.set_viewerUsersCount(s.get_viewerUsersCount()));
+        RECORD_FIELDS.put("_viewerGroupsCount", (s, t) -> t.set_viewerGroupsCount(s.get_viewerGroupsCount()));
+        RECORD_FIELDS.put("_lastUpdatedBy", (s, t) -> t.set_lastUpdatedBy(s.get_lastUpdatedBy()));
+        RECORD_FIELDS.put("_createdBy", (s, t) -> t.set_createdBy(s.get_createdBy()));
+        RECORD_FIELDS.put("_version", (s, t) -> t.set_version(s.get_version()));
+        RECORD_FIELDS.put("_idempotencyKey", (s, t) -> t.set_idempotencyKey(s.get_idempotencyKey()));
+        RECORD_FIELDS.put("_application", (s, t) -> t.set_application(s.get_application()));
+        RECORD_FIELDS.put("_creationDateTime", (s, t) -> t.set_creationDateTime(s.get_creationDateTime()));
+        RECORD_FIELDS.put("_validFromDateTime", (s, t) -> t.set_validFromDateTime(s.get_validFromDateTime()));
+        RECORD_FIELDS.put("_validUntilDateTime", (s, t) -> t.set_validUntilDateTime(s.get_validUntilDateTime()));
+        RECORD_FIELDS.put("_lastUpdatedDateTime",
+                (s, t) -> t.set_lastUpdatedDateTime(s.get_lastUpdatedDateTime()));
+    }
+
+    private final List<BiConsumer<PolicyData, PolicyData>> dataCopiers = new ArrayList<>();
+    private final List<BiConsumer<AnyRecordBase, AnyRecordBase>> payloadCopiers = new ArrayList<>();
+    private final List<BiConsumer<AnyRecordBase, AnyRecordBase>> originalRecordCopiers = new ArrayList<>();
+
+    /**
+     * Compiles the paths.
+     *
+     * @param paths
+     * @throws IllegalArgumentException if a path is not known
+     */
+    public InputProjection(List<String> paths) {
+
+        for (String path : paths) {
+            String[] segments = path.trim().split("\\.", 2);
+            String field = segments[0];
+
+            if (segments.length == 1) {
+                BiConsumer<PolicyData, PolicyData> dataCopier = DATA_FIELDS.get(field);
+
+                if (dataCopier == null) {
+                    throw new IllegalArgumentException("Unknown policy input path: " + path);
+                }
+
+                this.dataCopiers.add(dataCopier);
+            } else if (REQUEST_PAYLOAD.equals(field)) {
+                this.payloadCopiers.add(recordCopierOf(segments[1]));
+            } else if (ORIGINAL_RECORD.equals(field)) {
+                this.originalRecordCopiers.add(recordCopierOf(segments[1]));
+            } else {
+                throw new IllegalArgumentException("Unknown policy input path: " + path);
+            }
+        }
+    }
+
+    /**
+     * Returns a new policy inquiry data with the projected paths. Projected data
+     * is not shared and does not carry a serialized input.
+     *
+     * @param data
+     * @return
+     */
+    public PolicyData project(PolicyData data) {
+        PolicyData projected = new PolicyData();
+
+        projected.setPolicyName(data.getPolicyName());
+        projected.setEncodedJwt(data.getEncodedJwt());
+        projected.setClaims(data.getClaims());
+
+        for (BiConsumer<PolicyData, PolicyData> dataCopier : this.dataCopiers) {
+            dataCopier.accept(data, projected);
+        }
+
+        // a whole record copied by a data copier is not narrowed down
+        if (projected.getRequestPayload() == null) {
+            projected.setRequestPayload(projectRecord(data.getRequestPayload(), this.payloadCopiers));
+        }
+
+        if (projected.getOriginalRecord() == null) {
+            projected.setOriginalRecord(projectRecord(data.getOriginalRecord(), this.originalRecordCopiers));
+        }
+
+        return projected;
+    }
+
+    private static AnyRecordBase projectRecord(AnyRecordBase record,
+            List<BiConsumer<AnyRecordBase, AnyRecordBase>> copiers) {
+
+        if (record == null || copiers.isEmpty()) {
+            return null;
+        }
+
+        AnyRecordBase projected = new AnyRecordBase();
+
+        for (BiConsumer<AnyRecordBase, AnyRecordBase> copier : copiers) {
+            copier.accept(record, projected);
+        }
+
+        return projected;
+    }
+
+    private static BiConsumer<AnyRecordBase, AnyRecordBase> recordCopierOf(String field) {
+        BiConsumer<AnyRecordBase, AnyRecordBase> copier = RECORD_FIELDS.get(field);
+
+        if (copier != null) {
+            return copier;
+        }
+
+        return (s, t) -> {
+            Object value = s.getCustomFields().get(field);
+
+            if (value != null) {
+                t.setCustomFields(field, value);
+            }
+        };
+    }
+}
@@ -0,0 +1,230 @@
+package com.tarcinapp.entitypersistencegateway.clients.opa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Collects the policy evaluations of concurrent requests and sends them to OPA
+ * as a single query.
+ *
+ * The first evaluation arriving to an empty batch opens a window. The batch is
+ * sent when the window is closed, or as soon as it reaches the batch limit.
+ * Both adapt to the load: a full batch doubles the batch limit and widens the
+ * window by a step, a window closing with a single evaluation halves the
+ * window, since waiting only delayed that evaluation. Under low load the
+ * window shrinks to its minimum, under high load batches grow up to the
+ * maximum batch size.
+ *
+ * An evaluation cancelled before its batch is sent, e.g. by the request
+ * deadline, is removed from the batch.
+ *
+ * Batch sizes are recorded in 'gateway.opa.batch.size', time spent in the
+ * batch before it is sent is recorded in 'gateway.opa.batch.queueing'.
+ */
+public class OpaBatcher {
+
+    private static final int MIN_BATCH_LIMIT = 2;
+
+    private final Function<List<PolicyData>, Mono<List<Object>>> sender;
+
+    private final int maxBatchSize;
+    private final long minWindowMicros;
+    private final long maxWindowMicros;
+
+    private final Object lock = new Object();
+
+    private List<PendingEvaluation> pending = new ArrayList<>();
+    private Disposable scheduledFlush;
+
+    private volatile int batchLimit;
+    private volatile long windowMicros;
+
+    private final DistributionSummary batchSize;
+    private final Timer queueingDelay;
+
+    private Logger logger = LogManager.getLogger(OpaBatcher.class);
+
+    /**
+     * @param sender evaluates a batch, results are in the order of the inputs, null for undefined decisions
+     *               and the error for the evaluations failed on their own
+     * @param meterRegistry
+     * @param maxBatchSize
+     * @param minWindowMicros
+     * @param maxWindowMicros
+     */
+    public OpaBatcher(Function<List<PolicyData>, Mono<List<Object>>> sender, MeterRegistry meterRegistry,
+            int maxBatchSize, long minWindowMicros, long maxWindowMicros) {
+        this.sender = sender;
+        this.maxBatchSize = Math.max(MIN_BATCH_LIMIT, maxBatchSize);
+        this.minWindowMicros = Math.max(1, minWindowMicros);
+        this.maxWindowMicros = Math.max(this.minWindowMicros, maxWindowMicros);
+
+        this.batchLimit = MIN_BATCH_LIMIT;
+        this.windowMicros = this.minWindowMicros;
+
+        this.batchSize = DistributionSummary.builder("gateway.opa.batch.size")
+                .description("Number of policy evaluations sent to OPA in a single query")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        this.queueingDelay = Timer.builder("gateway.opa.batch.queueing")
+                .description("Time a policy evaluation waits in the batch before it is sent to OPA")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        Gauge.builder("gateway.opa.batch.window", this, batcher -> batcher.windowMicros)
+                .description("Current batching window")
+                .baseUnit("microseconds")
+                .register(meterRegistry);
+
+        Gauge.builder("gateway.opa.batch.limit", this, batcher -> batcher.batchLimit)
+                .description("Current batch limit")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Adds the evaluation to the current batch.
+     *
+     * @param data
+     * @return raw decision of the policy
+     */
+    public Mono<Object> submit(PolicyData data) {
+
+        return Mono.create(sink -> {
+            PendingEvaluation evaluation = new PendingEvaluation(data, sink);
+            List<PendingEvaluation> batch = null;
+
+            sink.onCancel(() -> this.remove(evaluation));
+
+            synchronized (this.lock) {
+                this.pending.add(evaluation);
+
+                if (this.pending.size() >= this.batchLimit) {
+                    batch = this.takeBatch(true);
+                } else if (this.pending.size() == 1) {
+                    this.scheduledFlush = Schedulers.parallel().schedule(this::flushWindow, this.windowMicros,
+                            TimeUnit.MICROSECONDS);
+                }
+            }
+
+            if (batch != null) {
+                this.send(batch);
+            }
+        });
+    }
+
+    private void remove(PendingEvaluation evaluation) {
+
+        synchronized (this.lock) {
+
+            // an evaluation already sent stays in its batch, its result is dropped
+            if (this.pending.remove(evaluation) && this.pending.isEmpty() && this.scheduledFlush != null) {
+                this.scheduledFlush.dispose();
+                this.scheduledFlush = null;
+            }
+        }
+    }
+
+    private void flushWindow() {
+        List<PendingEvaluation> batch;
+
+        synchronized (this.lock) {
+
+            if (this.pending.isEmpty()) {
+                return;
+            }
+
+            batch = this.takeBatch(false);
+        }
+
+        this.send(batch);
+    }
+
+    private List<PendingEvaluation> takeBatch(boolean full) {
+        List<PendingEvaluation> batch = this.pending;
+        this.pending = new ArrayList<>();
+
+        if (this.scheduledFlush != null) {
+            this.scheduledFlush.dispose();
+            this.scheduledFlush = null;
+        }
+
+        this.adapt(batch.size(), full);
+
+        return batch;
+    }
+
+    private void adapt(int size, boolean full) {
+
+        if (full) {
+            this.batchLimit = Math.min(this.maxBatchSize, this.batchLimit * 2);
+            this.windowMicros = Math.min(this.maxWindowMicros, this.windowMicros + this.minWindowMicros);
+        } else if (size <= 1) {
+            this.windowMicros = Math.max(this.minWindowMicros, this.windowMicros / 2);
+            this.batchLimit = Math.max(MIN_BATCH_LIMIT, this.batchLimit / 2);
+        }
+    }
+
+    private void send(List<PendingEvaluation> batch) {
+        long now = System.nanoTime();
+        List<PolicyData> inputs = new ArrayList<>(batch.size());
+
+        for (PendingEvaluation evaluation : batch) {
+            this.queueingDelay.record(now - evaluation.enqueuedNanos, TimeUnit.NANOSECONDS);
+            inputs.add(evaluation.data);
+        }
+
+        this.batchSize.record(batch.size());
+
+        // the batch is shared by several requests, it runs without their deadlines, see AdaptiveTimeouts
+        this.sender.apply(inputs).subscribe(results -> {
+
+            for (int i = 0; i < batch.size(); i++) {
+                PendingEvaluation evaluation = batch.get(i);
+                Object result = i < results.size() ? results.get(i) : null;
+
+                if (result == null) {
+                    evaluation.sink.error(new IllegalStateException(
+                            "Policy " + evaluation.data.getPolicyName() + " is undefined for the given input."));
+                } else if (result instanceof Throwable) {
+                    evaluation.sink.error((Throwable) result);
+                } else {
+                    evaluation.sink.success(result);
+                }
+            }
+        }, e -> {
+            logger.error("Batched policy evaluation is failed. Batch size: " + batch.size(), e);
+
+            batch.forEach(evaluation -> evaluation.sink.error(e));
+        });
+    }
+
+    private static class PendingEvaluation {
+
+        private final PolicyData data;
+        private final MonoSink<Object> sink;
+        private final long enqueuedNanos;
+
+        PendingEvaluation(PolicyData data, MonoSink<Object> sink) {
+            this.data = data;
+            this.sink = sink;
+            this.enqueuedNanos = System.nanoTime();
+        }
+    }
+}
@@ -1,32 +1,48 @@
 package com.tarcinapp.entitypersistencegateway.clients.opa;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.BodyInserter;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
 
-import io.netty.channel.ChannelOption;
-import io.netty.handler.timeout.ReadTimeoutHandler;
-import io.netty.handler.timeout.WriteTimeoutHandler;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.netty.http.client.HttpClient;
-import reactor.netty.tcp.TcpClient;
 
 import java.nio.charset.Charset;
-import java.util.concurrent.TimeUnit;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tarcinapp.entitypersistencegateway.auth.IAuthorizationClient;
 import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyInputMode;
 import com.tarcinapp.entitypersistencegateway.auth.PolicyResult;
+import com.tarcinapp.entitypersistencegateway.clients.http.AdaptiveTimeouts;
+import com.tarcinapp.entitypersistencegateway.clients.http.HttpClientFactory;
+import com.tarcinapp.entitypersistencegateway.clients.http.RequestHedging;
+import com.tarcinapp.entitypersistencegateway.resilience.DependencyGuards;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -36,6 +52,9 @@ import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 @Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
 public class OpaClient implements IAuthorizationClient {
 
+    // concurrent calls of a batch evaluated one by one
+    private static final int ONE_BY_ONE_CONCURRENCY = 4;
+
     private WebClient webClient;
 
     @Value("${app.opa.host:localhost}")
@@ -47,64 +66,329 @@ public class OpaClient implements IAuthorizationClient {
     @Value("${app.opa.protocol:http}")
     private String protocol;
 
+    @Value("${app.opa.socketPath:}")
+    private String socketPath;
+
     private String url;
 
+    private String queryUrl;
+
+    @Value("${app.opa.batching.enabled:false}")
+    private boolean batchingEnabled;
+
+    @Value("${app.opa.batching.maxBatchSize:64}")
+    private int maxBatchSize;
+
+    @Value("${app.opa.batching.minWindowMicros:100}")
+    private long minWindowMicros;
+
+    @Value("${app.opa.batching.maxWindowMicros:2000}")
+    private long maxWindowMicros;
+
+    @Autowired
+    private DecisionCache decisionCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PolicyInputWriter policyInputWriter;
+
+    @Autowired
+    private HttpClientFactory httpClientFactory;
+
+    @Autowired
+    private RequestHedging requestHedging;
+
+    @Autowired
+    private AdaptiveTimeouts adaptiveTimeouts;
+
+    @Autowired
+    private DependencyGuards dependencyGuards;
+
+    private OpaBatcher batcher;
+
+    private final ObjectMapper batchMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private Logger logger = LogManager.getLogger(OpaClient.class);
+
     public OpaClient() {
         
     }
 
     /**
-     * Set the opa url, default timeouts and headers
+     * Set the opa url and headers. Connections are taken from the 'opa' pool of
+     * the HttpClientFactory. If a socket path is configured, OPA is reached over
+     * the unix domain socket, and the host and port only take part in the Host
+     * header. TLS is not used over the socket, the protocol is forced to http.
      */
     @EventListener(ContextRefreshedEvent.class)
     private void initWebClient() {
+
+        if (!this.socketPath.isEmpty() && !"http".equals(this.protocol)) {
+            logger.warn("OPA is reached over the unix domain socket " + this.socketPath + ", protocol "
+                    + this.protocol + " is ignored and http is used.");
+            this.protocol = "http";
+        }
+
         this.url = this.protocol + "://" + this.host + ":" + this.port + "/v1/data/";
+        this.queryUrl = this.protocol + "://" + this.host + ":" + this.port + "/v1/query";
     
-        TcpClient tcpClient = TcpClient.create().option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
-                .doOnConnected(connection -> {
-                    connection.addHandlerLast(new ReadTimeoutHandler(2000, TimeUnit.MILLISECONDS));
-                    connection.addHandlerLast(new WriteTimeoutHandler(2000, TimeUnit.MILLISECONDS));
-                });
+        HttpClient httpClient = this.httpClientFactory.create("opa");
+
+        // domain sockets need the native transport, epoll on linux
+        if (!this.socketPath.isEmpty()) {
+            httpClient = httpClient.remoteAddress(() -> new DomainSocketAddress(this.socketPath));
+        }
 
         this.webClient = WebClient.builder().baseUrl(url)
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
                 .defaultHeader(HttpHeaders.ACCEPT_CHARSET, "UTF-8")
-                .clientConnector(new ReactorClientHttpConnector(HttpClient.from(tcpClient)))
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
             .build();
+
+        if (this.batchingEnabled && this.batcher == null) {
+            this.batcher = new OpaBatcher(this::evaluateBatch, this.meterRegistry, this.maxBatchSize,
+                this.minWindowMicros, this.maxWindowMicros);
+        }
     }
 
     public Mono<PolicyResult> executePolicy(PolicyData data) {
+        return this.decisionCache.get(data, PolicyResult.class, () -> this.evaluatePolicy(data));
+    }
+
+    public <T> Mono<T> executePolicy(PolicyData data,  Class<T> type) {
+        return this.decisionCache.get(data, type, () -> this.evaluatePolicy(data, type));
+    }
+
+    /**
+     * Evaluates the given policies with the same input in a single query. Each
+     * policy sees its own name as input.policyName, as if it is evaluated alone.
+     * 
+     * A policy is missing in the returned map if the query has no result, which
+     * happens when any of the policies is undefined for the input.
+     * 
+     * @param data
+     * @param policyNames
+     * @return decisions by policy name
+     */
+    @SuppressWarnings("unchecked")
+    public Mono<Map<String, Object>> executePolicies(PolicyData data, List<String> policyNames) {
+        PolicyData bundleData;
+
+        try {
+            bundleData = (PolicyData) data.clone();
+        } catch (CloneNotSupportedException e) {
+            return Mono.error(e);
+        }
+
+        bundleData.setPolicyName(String.join(",", policyNames));
+
+        return this.decisionCache.get(bundleData, Map.class, () -> this.evaluatePolicies(data, policyNames))
+            .map(decisions -> (Map<String, Object>) decisions);
+    }
+
+    private Mono<Map> evaluatePolicies(PolicyData data, List<String> policyNames) {
+        StringBuilder query = new StringBuilder();
+
+        for (int i = 0; i < policyNames.size(); i++) {
+            String policyName = policyNames.get(i);
 
-        PolicyRequest policyInput = new PolicyRequest();
-        policyInput.setInput(data);
+            if (i > 0) {
+                query.append("; ");
+            }
 
-        return webClient
+            query.append("p").append(i).append(" := ").append(this.toDataRef(policyName))
+                .append(" with input.policyName as ").append(this.toStringLiteral(policyName));
+        }
+
+        return this.dependencyGuards.guard("opa", this.adaptiveTimeouts.call("opa", "bundle", timeout -> webClient
             .post()
-            .uri(data.getPolicyName())
-            .body(BodyInserters.fromValue(policyInput))
+            .uri(this.queryUrl)
+            .httpRequest(request -> AdaptiveTimeouts.applyTo(request, timeout))
+            .body(BodyInserters.fromDataBuffers(this.queryRequestOf(query.toString(), data,
+                this.policyInputWriter.modeOf(policyNames))))
             .retrieve()
-            .bodyToMono(PolicyResponse.class)
-            .map(pr -> {
-                return pr.getResult();
+            .bodyToMono(PolicyQueryResponse.class)))
+            .map(pqr -> {
+
+                if (pqr.getResult() == null || pqr.getResult().isEmpty()
+                        || pqr.getResult().get(0).getBindings() == null) {
+                    return Collections.emptyMap();
+                }
+
+                Map<String, Object> bindings = pqr.getResult().get(0).getBindings();
+                Map<String, Object> decisions = new HashMap<>();
+
+                for (int i = 0; i < policyNames.size(); i++) {
+                    Object decision = bindings.get("p" + i);
+
+                    if (decision != null) {
+                        decisions.put(policyNames.get(i), decision);
+                    }
+                }
+
+                return decisions;
             });
     }
 
-    public <T> Mono<T> executePolicy(PolicyData data,  Class<T> type) {
-        PolicyRequest policyInput = new PolicyRequest();
-        policyInput.setInput(data);
+    /**
+     * Converts a policy name like /policies/fields/entities/policy to a reference
+     * like data["policies"]["fields"]["entities"]["policy"]
+     */
+    private String toDataRef(String policyName) {
+        StringBuilder ref = new StringBuilder("data");
+
+        for (String segment : policyName.split("/")) {
+
+            if (!segment.isEmpty()) {
+                ref.append("[").append(this.toStringLiteral(segment)).append("]");
+            }
+        }
+
+        return ref.toString();
+    }
+
+    private String toStringLiteral(String value) {
+        return "\"" + new String(JsonStringEncoder.getInstance().quoteAsString(value)) + "\"";
+    }
+
+    /**
+     * Evaluates a batch of policy inquiries in a single query. Each inquiry is
+     * evaluated with its own input. Results are in the order of the inputs.
+     * 
+     * If any of the decisions is undefined the query has no result. In that case
+     * inquiries are evaluated one by one, and undefined decisions are null.
+     * 
+     * @param inputs
+     * @return
+     */
+    private Mono<List<Object>> evaluateBatch(List<PolicyData> inputs) {
+        StringBuilder query = new StringBuilder();
+
+        try {
+
+            for (int i = 0; i < inputs.size(); i++) {
+                PolicyData input = inputs.get(i);
+
+                if (i > 0) {
+                    query.append("; ");
+                }
+
+                query.append("r").append(i).append(" := ").append(this.toDataRef(input.getPolicyName()))
+                    .append(" with input as ")
+                    .append(new String(this.policyInputWriter.serialize(input), StandardCharsets.UTF_8));
+            }
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
 
-        return webClient
+        return this.dependencyGuards.guard("opa", this.adaptiveTimeouts.call("opa", "batch", timeout -> webClient
             .post()
-            .uri(data.getPolicyName())
-            .body(BodyInserters.fromValue(policyInput))
+            .uri(this.queryUrl)
+            .httpRequest(request -> AdaptiveTimeouts.applyTo(request, timeout))
+            .body(BodyInserters.fromDataBuffers(this.queryRequestOf(query.toString(), null, null)))
             .retrieve()
-            .bodyToMono(GenericPolicyResponse.class)
-            .map(gpr -> {
-                ObjectMapper mapper = new ObjectMapper()
-                    .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-                
-                return mapper.convertValue(gpr.getResult(), type);
+            .bodyToMono(PolicyQueryResponse.class)))
+            .flatMap(pqr -> {
+
+                if (pqr.getResult() == null || pqr.getResult().isEmpty()
+                        || pqr.getResult().get(0).getBindings() == null) {
+                    return this.evaluateOneByOne(inputs);
+                }
+
+                Map<String, Object> bindings = pqr.getResult().get(0).getBindings();
+                List<Object> results = new ArrayList<>(inputs.size());
+
+                for (int i = 0; i < inputs.size(); i++) {
+                    results.add(bindings.get("r" + i));
+                }
+
+                return Mono.just(results);
+            });
+    }
+
+    /**
+     * Evaluates the inquiries of a batch with a few calls at a time, each one
+     * guarded and timed out as a single evaluation. A failing call only fails
+     * its own inquiry, its result is the error.
+     */
+    private Mono<List<Object>> evaluateOneByOne(List<PolicyData> inputs) {
+
+        return Flux.fromIterable(inputs)
+            .flatMapSequential(input -> this.dependencyGuards.guard("opa",
+                this.adaptiveTimeouts.call("opa", input.getPolicyName(), timeout -> webClient
+                    .post()
+                    .uri(input.getPolicyName())
+                    .httpRequest(request -> AdaptiveTimeouts.applyTo(request, timeout))
+                    .body(BodyInserters.fromDataBuffers(this.dataRequestOf(input)))
+                    .retrieve()
+                    .bodyToMono(GenericPolicyResponse.class)
+                    .map(gpr -> Optional.<Object>ofNullable(gpr.getResult()))))
+                .onErrorResume(e -> Mono.just(Optional.<Object>of(e))), ONE_BY_ONE_CONCURRENCY)
+            .collectList()
+            .map(results -> {
+                List<Object> decisions = new ArrayList<>(results.size());
+                results.forEach(result -> decisions.add(result.orElse(null)));
+
+                return decisions;
             });
     }
+
+    /**
+     * Policy input is serialized once per request, and written with the policy
+     * name into a pooled buffer with each call.
+     */
+    private Mono<DataBuffer> dataRequestOf(PolicyData data) {
+        return Mono.fromCallable(() -> this.policyInputWriter.writeDataRequest(data));
+    }
+
+    private Mono<DataBuffer> queryRequestOf(String query, PolicyData data, PolicyInputMode mode) {
+        return Mono.fromCallable(() -> this.policyInputWriter.writeQueryRequest(query, data, mode));
+    }
+
+    private Mono<PolicyResult> evaluatePolicy(PolicyData data) {
+
+        if (this.batcher != null) {
+            return this.batcher.submit(data)
+                .map(result -> this.batchMapper.convertValue(result, PolicyResult.class));
+        }
+
+        // policy evaluations have no side effects, thus they can be hedged
+        return this.requestHedging.hedge("opa", () -> this.dependencyGuards.guard("opa",
+            this.adaptiveTimeouts.call("opa", data.getPolicyName(), timeout -> webClient
+                .post()
+                .uri(data.getPolicyName())
+                .httpRequest(request -> AdaptiveTimeouts.applyTo(request, timeout))
+                .body(BodyInserters.fromDataBuffers(this.dataRequestOf(data)))
+                .retrieve()
+                .bodyToMono(PolicyResponse.class)
+                .map(pr -> {
+                    return pr.getResult();
+                }))));
+    }
+
+    private <T> Mono<T> evaluatePolicy(PolicyData data,  Class<T> type) {
+
+        if (this.batcher != null) {
+            return this.batcher.submit(data)
+                .map(result -> this.batchMapper.convertValue(result, type));
+        }
+
+        return this.requestHedging.hedge("opa", () -> this.dependencyGuards.guard("opa",
+            this.adaptiveTimeouts.call("opa", data.getPolicyName(), timeout -> webClient
+                .post()
+                .uri(data.getPolicyName())
+                .httpRequest(request -> AdaptiveTimeouts.applyTo(request, timeout))
+                .body(BodyInserters.fromDataBuffers(this.dataRequestOf(data)))
+                .retrieve()
+                .bodyToMono(GenericPolicyResponse.class)
+                .map(gpr -> {
+                    ObjectMapper mapper = new ObjectMapper()
+                        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+                    
+                    return mapper.convertValue(gpr.getResult(), type);
+                }))));
+    }
 }
\ No newline at end of file
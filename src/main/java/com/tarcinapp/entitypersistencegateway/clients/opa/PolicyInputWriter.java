@@ -0,0 +1,289 @@
+package com.tarcinapp.entitypersistencegateway.clients.opa;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyInputMode;
+import com.tarcinapp.entitypersistencegateway.config.ClaimsInputConfig;
+import com.tarcinapp.entitypersistencegateway.config.InputProjectionConfig;
+
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Writes the policy inquiry data as OPA input.
+ *
+ * Policy calls of a request share the same policy inquiry data, except for
+ * the policy name. The data is serialized once without the policy name, and
+ * kept in the PolicyData shared by its clones. Each call only adds the policy
+ * name in front of it, while writing the request into a pooled buffer.
+ *
+ * Policies configured in app.opa.claimsInput receive the verified claims
+ * instead of the encoded JWT. Input is serialized once for each mode in use.
+ * Policies with a projection in app.opa.projections receive only the paths
+ * they need, serialized for each call as the projection is small.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class PolicyInputWriter {
+
+    private static final byte[] EMPTY_OBJECT = "{}".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] INPUT_PREFIX = "{\"input\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] QUERY_PREFIX = "{\"query\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] QUERY_INPUT = ",\"input\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] POLICY_NAME_PREFIX = "{\"policyName\":".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private ClaimsInputConfig claimsInputConfig;
+
+    @Autowired
+    private InputProjectionConfig inputProjectionConfig;
+
+    private Map<String, InputProjection> projections = Collections.emptyMap();
+
+    // same configuration with the WebClient's codecs
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private final DataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void compileProjections() {
+        Map<String, InputProjection> compiledProjections = new HashMap<>();
+
+        for (InputProjectionConfig.Projection projection : this.inputProjectionConfig.getProjections()) {
+            compiledProjections.put(projection.getPolicyName(), new InputProjection(projection.getPaths()));
+        }
+
+        this.projections = compiledProjections;
+    }
+
+    /**
+     * Returns the input mode of the policy.
+     *
+     * @param policyName
+     * @return
+     */
+    public PolicyInputMode modeOf(String policyName) {
+        return this.claimsInputConfig.isClaimsPolicy(policyName) ? PolicyInputMode.CLAIMS : PolicyInputMode.JWT;
+    }
+
+    /**
+     * Returns the input mode serving all of the policies.
+     *
+     * @param policyNames
+     * @return
+     */
+    public PolicyInputMode modeOf(List<String> policyNames) {
+        PolicyInputMode mode = null;
+
+        for (String policyName : policyNames) {
+            PolicyInputMode policyMode = this.modeOf(policyName);
+
+            if (mode != null && mode != policyMode) {
+                return PolicyInputMode.BOTH;
+            }
+
+            mode = policyMode;
+        }
+
+        return mode != null ? mode : PolicyInputMode.JWT;
+    }
+
+    /**
+     * Returns the serialized policy inquiry data without the policy name, in the
+     * input mode of the policy. Serializes it with the first call, unless the
+     * policy has a projection.
+     *
+     * @param data
+     * @return
+     * @throws JsonProcessingException
+     */
+    public byte[] serializeWithoutPolicyName(PolicyData data) throws JsonProcessingException {
+        InputProjection projection = this.projections.get(data.getPolicyName());
+
+        // projected input is specific to the policy, thus it is not shared with the other policy calls
+        if (projection != null) {
+            return this.write(projection.project(data), this.modeOf(data.getPolicyName()));
+        }
+
+        return this.serializeWithoutPolicyName(data, this.modeOf(data.getPolicyName()));
+    }
+
+    /**
+     * Returns the serialized policy inquiry data without the policy name, in the
+     * given input mode. Serializes it with the first call.
+     *
+     * @param data
+     * @param mode
+     * @return
+     * @throws JsonProcessingException
+     */
+    public byte[] serializeWithoutPolicyName(PolicyData data, PolicyInputMode mode) throws JsonProcessingException {
+        byte[] serialized = data.getSerializedInputs().get(mode.ordinal());
+
+        if (serialized != null) {
+            return serialized;
+        }
+
+        serialized = this.write(data, mode);
+
+        // a concurrent call may have serialized it already, both results are the same
+        data.getSerializedInputs().compareAndSet(mode.ordinal(), null, serialized);
+
+        return serialized;
+    }
+
+    private byte[] write(PolicyData data, PolicyInputMode mode) throws JsonProcessingException {
+        PolicyData withoutPolicyName;
+
+        try {
+            withoutPolicyName = (PolicyData) data.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+
+        withoutPolicyName.setPolicyName(null);
+
+        if (mode == PolicyInputMode.JWT) {
+            withoutPolicyName.setClaims(null);
+        } else if (mode == PolicyInputMode.CLAIMS) {
+            withoutPolicyName.setEncodedJwt(null);
+        }
+
+        return this.objectMapper.writeValueAsBytes(withoutPolicyName);
+    }
+
+    /**
+     * Returns the policy inquiry data serialized with its policy name.
+     *
+     * @param data
+     * @return
+     * @throws JsonProcessingException
+     */
+    public byte[] serialize(PolicyData data) throws JsonProcessingException {
+        byte[] policyName = this.quote(data.getPolicyName());
+        byte[] rest = this.serializeWithoutPolicyName(data);
+        byte[] serialized = new byte[this.inputLength(policyName, rest)];
+
+        this.writeInput(serialized, 0, policyName, rest);
+
+        return serialized;
+    }
+
+    /**
+     * Writes the body of a /v1/data request: {"input":{...}}
+     *
+     * @param data
+     * @return a pooled buffer, released once written to the connection
+     * @throws JsonProcessingException
+     */
+    public DataBuffer writeDataRequest(PolicyData data) throws JsonProcessingException {
+        byte[] policyName = this.quote(data.getPolicyName());
+        byte[] rest = this.serializeWithoutPolicyName(data);
+
+        DataBuffer buffer = this.bufferFactory
+                .allocateBuffer(INPUT_PREFIX.length + this.inputLength(policyName, rest) + 1)
+                .write(INPUT_PREFIX)
+                .write(POLICY_NAME_PREFIX)
+                .write(policyName);
+
+        if (Arrays.equals(rest, EMPTY_OBJECT)) {
+            buffer.write((byte) '}');
+        } else {
+            // the opening brace of the rest is replaced with a comma
+            buffer.write((byte) ',').write(rest, 1, rest.length - 1);
+        }
+
+        return buffer.write((byte) '}');
+    }
+
+    /**
+     * Writes the body of a /v1/query request: {"query":"...","input":{...}}. The
+     * input is written without the policy name, if there is any.
+     *
+     * @param query
+     * @param data null if the query has no input
+     * @param mode input mode serving all of the policies in the query
+     * @return a pooled buffer, released once written to the connection
+     * @throws JsonProcessingException
+     */
+    public DataBuffer writeQueryRequest(String query, PolicyData data, PolicyInputMode mode)
+            throws JsonProcessingException {
+        byte[] quotedQuery = this.quote(query);
+        byte[] input = data != null ? this.serializeWithoutPolicyName(data, mode) : null;
+        int length = QUERY_PREFIX.length + quotedQuery.length + 1
+                + (input != null ? QUERY_INPUT.length + input.length : 0);
+
+        DataBuffer buffer = this.bufferFactory.allocateBuffer(length)
+                .write(QUERY_PREFIX)
+                .write(quotedQuery);
+
+        if (input != null) {
+            buffer.write(QUERY_INPUT).write(input);
+        }
+
+        return buffer.write((byte) '}');
+    }
+
+    private int inputLength(byte[] policyName, byte[] rest) {
+
+        // {"policyName":"..."} or {"policyName":"...",<rest without the opening brace>
+        return Arrays.equals(rest, EMPTY_OBJECT)
+                ? POLICY_NAME_PREFIX.length + policyName.length + 1
+                : POLICY_NAME_PREFIX.length + policyName.length + rest.length;
+    }
+
+    private int writeInput(byte[] target, int position, byte[] policyName, byte[] rest) {
+        System.arraycopy(POLICY_NAME_PREFIX, 0, target, position, POLICY_NAME_PREFIX.length);
+        position += POLICY_NAME_PREFIX.length;
+
+        System.arraycopy(policyName, 0, target, position, policyName.length);
+        position += policyName.length;
+
+        if (Arrays.equals(rest, EMPTY_OBJECT)) {
+            target[position] = '}';
+            return position + 1;
+        }
+
+        // replace the opening brace of the rest with a comma
+        target[position] = ',';
+        System.arraycopy(rest, 1, target, position + 1, rest.length - 1);
+
+        return position + rest.length;
+    }
+
+    private byte[] quote(String value) {
+
+        if (value == null) {
+            return "null".getBytes(StandardCharsets.UTF_8);
+        }
+
+        byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(value);
+        byte[] quoted = new byte[escaped.length + 2];
+
+        quoted[0] = '"';
+        System.arraycopy(escaped, 0, quoted, 1, escaped.length);
+        quoted[quoted.length - 1] = '"';
+
+        return quoted;
+    }
+}
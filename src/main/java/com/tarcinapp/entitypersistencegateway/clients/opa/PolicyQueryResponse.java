@@ -0,0 +1,34 @@
+package com.tarcinapp.entitypersistencegateway.clients.opa;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PolicyQueryResponse {
+
+    private ArrayList<QueryResult> result;
+
+    public ArrayList<QueryResult> getResult() {
+        return this.result;
+    }
+
+    public void setResult(ArrayList<QueryResult> result) {
+        this.result = result;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class QueryResult {
+
+        private LinkedHashMap<String, Object> bindings;
+
+        public LinkedHashMap<String, Object> getBindings() {
+            return this.bindings;
+        }
+
+        public void setBindings(LinkedHashMap<String, Object> bindings) {
+            this.bindings = bindings;
+        }
+    }
+}
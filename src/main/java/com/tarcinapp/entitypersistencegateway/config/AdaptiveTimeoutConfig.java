@@ -0,0 +1,69 @@
+package com.tarcinapp.entitypersistencegateway.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-request timeouts of the outbound calls, derived from the recent latencies
+ * of each dependency and operation. Until enough latencies are recorded, the
+ * read timeout of the dependency's pool is used.
+ */
+@Component
+@ConfigurationProperties("app.http-clients.adaptive-timeouts")
+public class AdaptiveTimeoutConfig {
+
+    private boolean enabled = false;
+    private double percentile = 0.99;
+    private double factor = 2;
+    private long minMillis = 50;
+    private long maxMillis = 5000;
+    private long minSamples = 100;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public void setPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    public void setFactor(double factor) {
+        this.factor = factor;
+    }
+
+    public long getMinMillis() {
+        return minMillis;
+    }
+
+    public void setMinMillis(long minMillis) {
+        this.minMillis = minMillis;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public void setMaxMillis(long maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    public long getMinSamples() {
+        return minSamples;
+    }
+
+    public void setMinSamples(long minSamples) {
+        this.minSamples = minSamples;
+    }
+}
@@ -0,0 +1,46 @@
+package com.tarcinapp.entitypersistencegateway.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Policies receiving the verified claims instead of the encoded JWT in their
+ * input. Custom claims listed here are added to the claims in addition to
+ * sub, azp, roles and groups.
+ */
+@Component
+@ConfigurationProperties("app.opa.claims-input")
+public class ClaimsInputConfig {
+
+    public static final String ALL_POLICIES = "*";
+
+    private List<String> policies = new ArrayList<>();
+    private List<String> customClaims = new ArrayList<>();
+
+    public List<String> getPolicies() {
+        return policies;
+    }
+
+    public void setPolicies(List<String> policies) {
+        this.policies = policies;
+    }
+
+    public List<String> getCustomClaims() {
+        return customClaims;
+    }
+
+    public void setCustomClaims(List<String> customClaims) {
+        this.customClaims = customClaims;
+    }
+
+    public boolean isEnabled() {
+        return !this.policies.isEmpty();
+    }
+
+    public boolean isClaimsPolicy(String policyName) {
+        return this.policies.contains(ALL_POLICIES) || this.policies.contains(policyName);
+    }
+}
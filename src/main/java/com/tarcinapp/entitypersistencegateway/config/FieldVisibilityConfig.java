@@ -0,0 +1,97 @@
+package com.tarcinapp.entitypersistencegateway.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Declares what the decisions of the field policies depend on. Decisions of
+ * role-determined policies are kept in the field visibility matrix, keyed by
+ * the caller's roles and the record kind.
+ */
+@Component
+@ConfigurationProperties("app.opa.field-visibility")
+public class FieldVisibilityConfig {
+
+    public enum DeterminedBy {
+        /**
+         * Decision depends only on the caller's roles and the record kind
+         */
+        ROLES,
+
+        /**
+         * Decision depends on the record or the request, it is never kept in the matrix
+         */
+        RECORD
+    }
+
+    private boolean enabled = false;
+    private long maxSize = 10000;
+    private long refreshSeconds = 60;
+    private long ttlSeconds = 600;
+    private List<FieldPolicy> policies = new ArrayList<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getRefreshSeconds() {
+        return refreshSeconds;
+    }
+
+    public void setRefreshSeconds(long refreshSeconds) {
+        this.refreshSeconds = refreshSeconds;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public List<FieldPolicy> getPolicies() {
+        return policies;
+    }
+
+    public void setPolicies(List<FieldPolicy> policies) {
+        this.policies = policies;
+    }
+
+    public static class FieldPolicy {
+
+        private String policyName;
+        private DeterminedBy determinedBy = DeterminedBy.RECORD;
+
+        public String getPolicyName() {
+            return policyName;
+        }
+
+        public void setPolicyName(String policyName) {
+            this.policyName = policyName;
+        }
+
+        public DeterminedBy getDeterminedBy() {
+            return determinedBy;
+        }
+
+        public void setDeterminedBy(DeterminedBy determinedBy) {
+            this.determinedBy = determinedBy;
+        }
+    }
+}
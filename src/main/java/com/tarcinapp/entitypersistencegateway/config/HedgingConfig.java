@@ -0,0 +1,83 @@
+package com.tarcinapp.entitypersistencegateway.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hedging of the idempotent outbound calls, by the name of the dependency
+ * (backend, opa). Hedging is disabled for dependencies not configured here.
+ */
+@Component
+@ConfigurationProperties("app.http-clients")
+public class HedgingConfig {
+
+    private Map<String, Hedge> hedging = new HashMap<>();
+
+    public Map<String, Hedge> getHedging() {
+        return hedging;
+    }
+
+    public void setHedging(Map<String, Hedge> hedging) {
+        this.hedging = hedging;
+    }
+
+    public Hedge getHedge(String name) {
+        return this.hedging.getOrDefault(name, new Hedge());
+    }
+
+    public static class Hedge {
+
+        private boolean enabled = false;
+
+        // fixed delay before the hedge is sent, 0 to use the latency percentile
+        private long delayMillis = 0;
+        private double percentile = 0.95;
+        private long minDelayMillis = 5;
+
+        // hedges allowed, as a percentage of the calls
+        private double budgetPercent = 5;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getDelayMillis() {
+            return delayMillis;
+        }
+
+        public void setDelayMillis(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        public double getPercentile() {
+            return percentile;
+        }
+
+        public void setPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+
+        public long getMinDelayMillis() {
+            return minDelayMillis;
+        }
+
+        public void setMinDelayMillis(long minDelayMillis) {
+            this.minDelayMillis = minDelayMillis;
+        }
+
+        public double getBudgetPercent() {
+            return budgetPercent;
+        }
+
+        public void setBudgetPercent(double budgetPercent) {
+            this.budgetPercent = budgetPercent;
+        }
+    }
+}
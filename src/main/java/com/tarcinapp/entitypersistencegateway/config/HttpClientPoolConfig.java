@@ -0,0 +1,128 @@
+package com.tarcinapp.entitypersistencegateway.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Connection pools of the outbound HTTP clients, by the name of the dependency
+ * (backend, opa). Dependencies without a pool configuration use the defaults.
+ */
+@Component
+@ConfigurationProperties("app.http-clients")
+public class HttpClientPoolConfig {
+
+    private Map<String, Pool> pools = new HashMap<>();
+
+    public Map<String, Pool> getPools() {
+        return pools;
+    }
+
+    public void setPools(Map<String, Pool> pools) {
+        this.pools = pools;
+    }
+
+    public Pool getPool(String name) {
+        return this.pools.getOrDefault(name, new Pool());
+    }
+
+    public static class Pool {
+
+        private int maxConnections = 100;
+
+        // requests waiting for a connection, beyond this they fail immediately
+        private int pendingAcquireMaxCount = 200;
+        private long pendingAcquireTimeoutMillis = 2000;
+        private long maxIdleSeconds = 30;
+        private long maxLifeSeconds = 300;
+        private long evictInBackgroundSeconds = 30;
+        private int connectTimeoutMillis = 5000;
+        private long readTimeoutMillis = 2000;
+        private long writeTimeoutMillis = 2000;
+
+        // HTTP/2 over cleartext, upgraded from HTTP/1.1 if the upstream supports it
+        private boolean h2c = false;
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public int getPendingAcquireMaxCount() {
+            return pendingAcquireMaxCount;
+        }
+
+        public void setPendingAcquireMaxCount(int pendingAcquireMaxCount) {
+            this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+        }
+
+        public long getPendingAcquireTimeoutMillis() {
+            return pendingAcquireTimeoutMillis;
+        }
+
+        public void setPendingAcquireTimeoutMillis(long pendingAcquireTimeoutMillis) {
+            this.pendingAcquireTimeoutMillis = pendingAcquireTimeoutMillis;
+        }
+
+        public long getMaxIdleSeconds() {
+            return maxIdleSeconds;
+        }
+
+        public void setMaxIdleSeconds(long maxIdleSeconds) {
+            this.maxIdleSeconds = maxIdleSeconds;
+        }
+
+        public long getMaxLifeSeconds() {
+            return maxLifeSeconds;
+        }
+
+        public void setMaxLifeSeconds(long maxLifeSeconds) {
+            this.maxLifeSeconds = maxLifeSeconds;
+        }
+
+        public long getEvictInBackgroundSeconds() {
+            return evictInBackgroundSeconds;
+        }
+
+        public void setEvictInBackgroundSeconds(long evictInBackgroundSeconds) {
+            this.evictInBackgroundSeconds = evictInBackgroundSeconds;
+        }
+
+        public int getConnectTimeoutMillis() {
+            return connectTimeoutMillis;
+        }
+
+        public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+        }
+
+        public long getReadTimeoutMillis() {
+            return readTimeoutMillis;
+        }
+
+        public void setReadTimeoutMillis(long readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+        }
+
+        public long getWriteTimeoutMillis() {
+            return writeTimeoutMillis;
+        }
+
+        public void setWriteTimeoutMillis(long writeTimeoutMillis) {
+            this.writeTimeoutMillis = writeTimeoutMillis;
+        }
+
+        public boolean isH2c() {
+            return h2c;
+        }
+
+        public void setH2c(boolean h2c) {
+            this.h2c = h2c;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.tarcinapp.entitypersistencegateway.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Input paths each policy needs. Policies without a projection receive the
+ * whole policy inquiry data.
+ */
+@Component
+@ConfigurationProperties("app.opa")
+public class InputProjectionConfig {
+
+    private List<Projection> projections = new ArrayList<>();
+
+    public List<Projection> getProjections() {
+        return projections;
+    }
+
+    public void setProjections(List<Projection> projections) {
+        this.projections = projections;
+    }
+
+    public static class Projection {
+
+        private String policyName;
+
+        // e.g. httpMethod, requestPayload._visibility, originalRecord._ownerUsers
+        private List<String> paths = new ArrayList<>();
+
+        public String getPolicyName() {
+            return policyName;
+        }
+
+        public void setPolicyName(String policyName) {
+            this.policyName = policyName;
+        }
+
+        public List<String> getPaths() {
+            return paths;
+        }
+
+        public void setPaths(List<String> paths) {
+            this.paths = paths;
+        }
+    }
+}
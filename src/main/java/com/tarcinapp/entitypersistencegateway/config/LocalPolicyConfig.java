@@ -0,0 +1,99 @@
+package com.tarcinapp.entitypersistencegateway.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Declarative rules of the policies which can be decided in the gateway
+ * without calling OPA. Each rule allows the request if the user has one of the
+ * roles, or owns the original record.
+ */
+@Component
+@ConfigurationProperties("app.local-policies")
+public class LocalPolicyConfig {
+
+    public enum Mode {
+        /**
+         * Conclusive local decisions are used, OPA is called for the rest
+         */
+        ENFORCE,
+
+        /**
+         * OPA decisions are used, local decisions are only compared with them
+         */
+        SHADOW
+    }
+
+    private boolean enabled = false;
+    private Mode mode = Mode.ENFORCE;
+    private List<Rule> rules = new ArrayList<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public void setRules(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    public static class Rule {
+
+        private String policyName;
+
+        // role names without the application shortcode prefix, e.g. records.editor
+        private List<String> roles = new ArrayList<>();
+        private boolean allowOwnerUsers = false;
+        private boolean allowOwnerGroups = false;
+
+        public String getPolicyName() {
+            return policyName;
+        }
+
+        public void setPolicyName(String policyName) {
+            this.policyName = policyName;
+        }
+
+        public List<String> getRoles() {
+            return roles;
+        }
+
+        public void setRoles(List<String> roles) {
+            this.roles = roles;
+        }
+
+        public boolean isAllowOwnerUsers() {
+            return allowOwnerUsers;
+        }
+
+        public void setAllowOwnerUsers(boolean allowOwnerUsers) {
+            this.allowOwnerUsers = allowOwnerUsers;
+        }
+
+        public boolean isAllowOwnerGroups() {
+            return allowOwnerGroups;
+        }
+
+        public void setAllowOwnerGroups(boolean allowOwnerGroups) {
+            this.allowOwnerGroups = allowOwnerGroups;
+        }
+    }
+}
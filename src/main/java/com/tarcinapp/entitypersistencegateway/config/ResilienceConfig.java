@@ -0,0 +1,133 @@
+package com.tarcinapp.entitypersistencegateway.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Circuit breakers of the dependencies (opa, backend, redis), and bulkheads of
+ * the dependencies and the route groups (reads, writes). Names without a
+ * configuration use the defaults.
+ */
+@Component
+@ConfigurationProperties("app.resilience")
+public class ResilienceConfig {
+
+    private boolean enabled = false;
+    private Map<String, CircuitBreaker> circuitBreakers = new HashMap<>();
+    private Map<String, Bulkhead> bulkheads = new HashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    public void setCircuitBreakers(Map<String, CircuitBreaker> circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    public Map<String, Bulkhead> getBulkheads() {
+        return bulkheads;
+    }
+
+    public void setBulkheads(Map<String, Bulkhead> bulkheads) {
+        this.bulkheads = bulkheads;
+    }
+
+    public CircuitBreaker getCircuitBreaker(String name) {
+        return this.circuitBreakers.getOrDefault(name, new CircuitBreaker());
+    }
+
+    public Bulkhead getBulkhead(String name) {
+        return this.bulkheads.getOrDefault(name, new Bulkhead());
+    }
+
+    public static class CircuitBreaker {
+
+        private float failureRateThreshold = 50;
+        private float slowCallRateThreshold = 100;
+        private long slowCallDurationMillis = 2000;
+        private int slidingWindowSize = 50;
+        private int minimumNumberOfCalls = 20;
+        private long waitInOpenStateSeconds = 10;
+        private int permittedCallsInHalfOpenState = 5;
+
+        public float getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        public void setFailureRateThreshold(float failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public float getSlowCallRateThreshold() {
+            return slowCallRateThreshold;
+        }
+
+        public void setSlowCallRateThreshold(float slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+        }
+
+        public long getSlowCallDurationMillis() {
+            return slowCallDurationMillis;
+        }
+
+        public void setSlowCallDurationMillis(long slowCallDurationMillis) {
+            this.slowCallDurationMillis = slowCallDurationMillis;
+        }
+
+        public int getSlidingWindowSize() {
+            return slidingWindowSize;
+        }
+
+        public void setSlidingWindowSize(int slidingWindowSize) {
+            this.slidingWindowSize = slidingWindowSize;
+        }
+
+        public int getMinimumNumberOfCalls() {
+            return minimumNumberOfCalls;
+        }
+
+        public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+            this.minimumNumberOfCalls = minimumNumberOfCalls;
+        }
+
+        public long getWaitInOpenStateSeconds() {
+            return waitInOpenStateSeconds;
+        }
+
+        public void setWaitInOpenStateSeconds(long waitInOpenStateSeconds) {
+            this.waitInOpenStateSeconds = waitInOpenStateSeconds;
+        }
+
+        public int getPermittedCallsInHalfOpenState() {
+            return permittedCallsInHalfOpenState;
+        }
+
+        public void setPermittedCallsInHalfOpenState(int permittedCallsInHalfOpenState) {
+            this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+        }
+    }
+
+    public static class Bulkhead {
+
+        private int maxConcurrentCalls = 200;
+
+        public int getMaxConcurrentCalls() {
+            return maxConcurrentCalls;
+        }
+
+        public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+            this.maxConcurrentCalls = maxConcurrentCalls;
+        }
+    }
+}
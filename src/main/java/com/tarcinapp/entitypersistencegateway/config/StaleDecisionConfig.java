@@ -0,0 +1,75 @@
+package com.tarcinapp.entitypersistencegateway.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Policies whose expired decisions can be served from the decision cache for
+ * a grace period while the decision is revalidated. Only list the policies
+ * where a slightly outdated decision is acceptable, such as field masks.
+ */
+@Component
+@ConfigurationProperties("app.opa.decision-cache.stale")
+public class StaleDecisionConfig {
+
+    public static final String ALL_POLICIES = "*";
+
+    private boolean enabled = false;
+    private long graceSeconds = 30;
+    private List<String> policies = new ArrayList<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getGraceSeconds() {
+        return graceSeconds;
+    }
+
+    public void setGraceSeconds(long graceSeconds) {
+        this.graceSeconds = graceSeconds;
+    }
+
+    public List<String> getPolicies() {
+        return policies;
+    }
+
+    public void setPolicies(List<String> policies) {
+        this.policies = policies;
+    }
+
+    /**
+     * Returns true if stale decisions of the policy can be served. Bundled
+     * policies are named together, separated by commas, and all of them must
+     * allow it.
+     *
+     * @param policyName
+     * @return
+     */
+    public boolean isStaleAllowed(String policyName) {
+
+        if (!this.enabled || policyName == null) {
+            return false;
+        }
+
+        if (this.policies.contains(ALL_POLICIES)) {
+            return true;
+        }
+
+        for (String name : policyName.split(",")) {
+
+            if (!this.policies.contains(name)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
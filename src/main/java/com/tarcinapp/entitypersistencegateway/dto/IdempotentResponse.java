@@ -0,0 +1,77 @@
+package com.tarcinapp.entitypersistencegateway.dto;
+
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * State of a request carrying an Idempotency-Key, as it is stored in Redis.
+ *
+ * While the first request is being processed, only the payload digest is
+ * stored. Once the backend responds, the response status, headers and body are
+ * stored, and retries with the same key are answered from this record.
+ */
+@JsonInclude(Include.NON_NULL)
+public class IdempotentResponse {
+
+    private String payloadDigest;
+    private boolean completed;
+    private Integer status;
+    private Map<String, List<String>> headers;
+    private byte[] body;
+
+    public static IdempotentResponse inFlight(String payloadDigest) {
+        IdempotentResponse response = new IdempotentResponse();
+        response.setPayloadDigest(payloadDigest);
+
+        return response;
+    }
+
+    public String getPayloadDigest() {
+        return payloadDigest;
+    }
+
+    public void setPayloadDigest(String payloadDigest) {
+        this.payloadDigest = payloadDigest;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+    @JsonIgnore
+    public boolean isInFlight() {
+        return !completed;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    public void setStatus(Integer status) {
+        this.status = status;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(Map<String, List<String>> headers) {
+        this.headers = headers;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public void setBody(byte[] body) {
+        this.body = body;
+    }
+}
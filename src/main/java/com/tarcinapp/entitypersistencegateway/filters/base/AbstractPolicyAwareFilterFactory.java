@@ -1,12 +1,16 @@
 package com.tarcinapp.entitypersistencegateway.filters.base;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.tarcinapp.entitypersistencegateway.auth.IAuthorizationClient;
+import com.tarcinapp.entitypersistencegateway.auth.JwksKeyResolver;
 import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.auth.RoutePolicyBundle;
+import com.tarcinapp.entitypersistencegateway.clients.opa.PolicyInputWriter;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -38,9 +42,18 @@ public abstract class AbstractPolicyAwareFilterFactory<C extends PolicyEvaluatin
     @Autowired(required = false)
     Key key;
 
+    @Autowired
+    JwksKeyResolver jwksKeyResolver;
+
     @Autowired
     IAuthorizationClient authorizationClient;
 
+    @Autowired
+    RoutePolicyBundle routePolicyBundle;
+
+    @Autowired
+    PolicyInputWriter policyInputWriter;
+
     private Logger logger = LogManager.getLogger(AbstractPolicyAwareFilterFactory.class);
 
     private final static String POLICY_INQUIRY_DATA_ATTR = "PolicyInquiryData";
@@ -60,7 +73,7 @@ public abstract class AbstractPolicyAwareFilterFactory<C extends PolicyEvaluatin
 
         return (exchange, chain) -> {
 
-            if (key == null) {
+            if (key == null && !jwksKeyResolver.isEnabled()) {
                 logger.warn("Policy evaluation is skipped as security key is not configured.");
                 return chain.filter(exchange);
             }
@@ -88,7 +101,7 @@ public abstract class AbstractPolicyAwareFilterFactory<C extends PolicyEvaluatin
         PolicyData policyInquiryData = this.getPolicyInquriyData(exchange);
         policyInquiryData.setPolicyName(config.getPolicyName());
         
-        return this.executePolicy(policyInquiryData).flatMap(pr -> {
+        return this.executePolicy(exchange, policyInquiryData).flatMap(pr -> {
 
             logger.debug("Policy evaluation is completed.");
 
@@ -99,13 +112,20 @@ public abstract class AbstractPolicyAwareFilterFactory<C extends PolicyEvaluatin
         });
     }
 
-    protected Mono<PR> executePolicy(PolicyData policyInquiryData) {
+    protected Mono<PR> executePolicy(ServerWebExchange exchange, PolicyData policyInquiryData) {
 
-        if (logger.getLevel() == Level.DEBUG) {
-            logger.trace("Policy inquiry data is: ", this.serializeObjectAsJsonForLogging(policyInquiryData));
+        // serialized only if it is going to be logged, reusing the serialized input sent to the PEP
+        if (logger.isTraceEnabled()) {
+
+            try {
+                logger.trace("Policy inquiry data is: {}",
+                        new String(this.policyInputWriter.serialize(policyInquiryData), StandardCharsets.UTF_8));
+            } catch (JsonProcessingException e) {
+                logger.trace("Unable to serialize policy inquiry data to JSON string.");
+            }
         }
 
-        return this.authorizationClient.executePolicy(policyInquiryData, policyResultClass);
+        return this.routePolicyBundle.executePolicy(exchange, policyInquiryData, policyResultClass);
     }
 
     /**
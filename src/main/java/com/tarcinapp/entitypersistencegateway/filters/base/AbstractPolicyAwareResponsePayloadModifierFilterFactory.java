@@ -6,6 +6,7 @@ import java.security.Key;
 
 import com.tarcinapp.entitypersistencegateway.auth.IAuthorizationClient;
 import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.auth.RoutePolicyBundle;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -41,6 +42,9 @@ public abstract class AbstractPolicyAwareResponsePayloadModifierFilterFactory<C
     @Autowired
     IAuthorizationClient authorizationClient;
 
+    @Autowired
+    RoutePolicyBundle routePolicyBundle;
+
     private Logger logger = LogManager.getLogger(AbstractPolicyAwareResponsePayloadModifierFilterFactory.class);
 
     private Class<I> inClass;
@@ -82,7 +86,7 @@ public abstract class AbstractPolicyAwareResponsePayloadModifierFilterFactory<C
                                         exchange);
                                 policyInquiryData.setPolicyName(config.getPolicyName());
 
-                                return authorizationClient.executePolicy(policyInquiryData, policyResultClass)
+                                return routePolicyBundle.executePolicy(exchange, policyInquiryData, policyResultClass)
                                         .flatMap(pr -> {
 
                                             logger.debug("PEP returned response modification filter." + pr.toString());
@@ -1,38 +1,40 @@
 package com.tarcinapp.entitypersistencegateway.filters.common;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.redisson.api.RLockReactive;
-import org.redisson.api.RReadWriteLockReactive;
-import org.redisson.api.RedissonReactiveClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
-import org.springframework.cloud.gateway.filter.factory.rewrite.ModifyRequestBodyGatewayFilterFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.server.ServerWebExchange;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
+import com.tarcinapp.entitypersistencegateway.helpers.PayloadDigest;
+import com.tarcinapp.entitypersistencegateway.locks.RecordLock;
+import com.tarcinapp.entitypersistencegateway.locks.RecordLockService;
 import reactor.core.publisher.Mono;
 
+/**
+ * This filter prevents the same record to be created more than once
+ * concurrently, e.g. by a double click or a client retry.
+ * 
+ * A lock is acquired on the hash of the request payload, and held until the
+ * request is completed. The hash is calculated over the canonical form of the
+ * JSON payload, thus payloads differing only by whitespace or key order are
+ * treated as the same record.
+ */
 @Component
 public class AcquireLockForCreation
         extends AbstractGatewayFilterFactory<AcquireLockForCreation.Config> {
 
-    private Logger logger = LogManager.getLogger(AcquireLockForCreation.class);
+    private final static String CREATION_LOCK_ATTR = "RecordCreationLock";
 
-    @Autowired
-    private ModifyRequestBodyGatewayFilterFactory modifyRequestBodyFilterFactory;
+    private Logger logger = LogManager.getLogger(AcquireLockForCreation.class);
 
     @Autowired
-    RedissonReactiveClient redissonReactiveClient;
+    RecordLockService recordLockService;
 
     @Value("${app.shortcode:#{tarcinapp}}")
     private String appShortcode;
@@ -47,40 +49,17 @@ public class AcquireLockForCreation
         return (exchange, chain) -> {
             logger.debug("AcquireLockForCreation filter is started.");
 
-            return modifyRequestBodyFilterFactory
-                    .apply(
-                            new ModifyRequestBodyGatewayFilterFactory.Config()
-                                    .setRewriteFunction(String.class, String.class, (ex, payload) -> {
-
-                                        try {
-
-                                            String payloadHash = calculatePayloadhHash(ex, payload);
-                                            logger.debug("Payload hash is calculated as: " + payloadHash);
-
-                                            /*
-                                             * if (true) {
-                                             * JsonProcessingException jsonProcessingException = new
-                                             * JsonProcessingException(
-                                             * "Simulated JSON processing exception") {
-                                             * };
-                                             * 
-                                             * throw jsonProcessingException;
-                                             * }
-                                             */
-
-                                            // Pass the request as it is to the filter chain
-                                            return this.lockRecord(payloadHash)
-                                                    .then(Mono.just(payload));
-                                        } catch (JsonProcessingException e) {
-                                            logger.error(
-                                                    "An error occured while parsing the request payload for hash calculation.",
-                                                    e);
-
-                                            throw new ResponseStatusException(
-                                                    HttpStatus.BAD_REQUEST, "Invalid JSON body", e);
-                                        }
-                                    }))
-                    .filter(exchange, chain)
+            // digest may already be calculated by HandleIdempotencyKey
+            return PayloadDigest.read(exchange)
+                    .flatMap(cachedBodyExchange -> {
+                        String payloadHash = PayloadDigest.of(cachedBodyExchange);
+
+                        logger.debug("Payload hash is calculated as: " + payloadHash);
+
+                        return this.lockRecord(exchange, payloadHash)
+                                .then(chain.filter(cachedBodyExchange));
+                    })
+                    .then(Mono.defer(() -> this.releaseLock(exchange)))
                     .onErrorResume(e -> {
 
                         ServerHttpResponse response = exchange.getResponse();
@@ -92,76 +71,42 @@ public class AcquireLockForCreation
                             logger.error(e);
                         }
 
-                        return response.setComplete();
-                    });
+                        return this.releaseLock(exchange)
+                                .then(response.setComplete());
+                    })
+                    .doOnCancel(() -> this.releaseLock(exchange).subscribe());
         };
     }
 
-    private Mono<Void> lockRecord(String payloadHash) {
-
-        final long currentThreadId = Thread.currentThread().getId();
-        final RReadWriteLockReactive lock = redissonReactiveClient
-                .getReadWriteLock(appShortcode+"+lock-on-record-creation-" + payloadHash);
-        final RLockReactive writeLock = lock.writeLock();
-
-        return writeLock.isLocked()
-                .flatMap(locked -> {
-
-                    if (locked) {
-                        throw new ResponseStatusException(HttpStatus.LOCKED,
-                                "Resource already locked. payload hash: " + payloadHash);
-                    }
-
-                    logger.debug("Lock acquired for the record creation with payload hash: "
-                            + payloadHash);
-
-                    return writeLock
-                            .tryLock(3, 30, TimeUnit.SECONDS, currentThreadId)
-                            .flatMap(lockAcquired -> {
-
-                                if (!lockAcquired) {
-                                    throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
-                                            "Failed to acquire write lock for the record creation with payload hash: "
-                                                    + payloadHash);
-                                }
-
-                                logger.debug("Lock acquired for the record creation with payload hash: " + payloadHash);
-
-                                return Mono.<Void>empty();
-                            })
-                            .onErrorResume(throwable -> {
-
-                                return writeLock.unlock(currentThreadId)
-                                        .then(Mono.error(throwable));
-                            })
-                            .doFinally(signalType -> {
-                                writeLock.unlock(currentThreadId).subscribe();
-                            });
-                });
+    /**
+     * Acquires the creation lock and keeps it in the exchange attributes, so that
+     * the lock is held until the request is completed.
+     * 
+     * @param exchange
+     * @param payloadHash
+     * @return
+     */
+    private Mono<Void> lockRecord(ServerWebExchange exchange, String payloadHash) {
+
+        return this.recordLockService.acquire(appShortcode + "+record-creation-lock:" + payloadHash)
+                .doOnNext(lock -> {
+                    logger.debug("Lock acquired for the record creation with payload hash: " + payloadHash);
+
+                    exchange.getAttributes().put(CREATION_LOCK_ATTR, lock);
+                })
+                .then();
     }
 
-    private String calculatePayloadhHash(ServerWebExchange ex, String payload)
-            throws JsonMappingException, JsonProcessingException {
-
-        // Use a hash function (e.g., SHA-256) to hash the keyFields to create an
-        // payload hash.
-        // This example uses SHA-256 for simplicity; you can choose a suitable hashing
-        // algorithm.
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(payload.getBytes());
-            return bytesToHex(hash);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Error calculating hash from the payload", e);
-        }
-    }
+    private Mono<Void> releaseLock(ServerWebExchange exchange) {
+        RecordLock lock = exchange.getAttribute(CREATION_LOCK_ATTR);
 
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02x", b));
+        if (lock == null) {
+            return Mono.empty();
         }
-        return result.toString();
+
+        exchange.getAttributes().remove(CREATION_LOCK_ATTR);
+
+        return this.recordLockService.release(lock);
     }
 
     public static class Config {
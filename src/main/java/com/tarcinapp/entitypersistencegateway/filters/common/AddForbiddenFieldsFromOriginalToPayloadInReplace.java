@@ -8,8 +8,9 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.tarcinapp.entitypersistencegateway.auth.IAuthorizationClient;
+import com.tarcinapp.entitypersistencegateway.auth.JwksKeyResolver;
 import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.auth.RoutePolicyBundle;
 import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
 
 import org.apache.logging.log4j.LogManager;
@@ -55,11 +56,14 @@ public class AddForbiddenFieldsFromOriginalToPayloadInReplace
         extends AbstractGatewayFilterFactory<AddForbiddenFieldsFromOriginalToPayloadInReplace.Config> {
 
     @Autowired
-    IAuthorizationClient authorizationClient;
+    RoutePolicyBundle routePolicyBundle;
 
     @Autowired(required = false)
     private Key key;
 
+    @Autowired
+    JwksKeyResolver jwksKeyResolver;
+
     private final static String POLICY_INQUIRY_DATA_ATTR = "PolicyInquiryData";
 
     private Logger logger = LogManager.getLogger(AddForbiddenFieldsFromOriginalToPayloadInReplace.class);
@@ -75,7 +79,7 @@ public class AddForbiddenFieldsFromOriginalToPayloadInReplace
             logger.debug("AddForbiddenFieldsFromOriginalToPayloadInReplace filter is started. Policy name: "
                     + config.getPolicyName());
 
-            if (this.key == null) {
+            if (this.key == null && !this.jwksKeyResolver.isEnabled()) {
                 logger.warn("RS256 key is not configured. We can't query for forbidden fields. This request won't be authorized.");
                 return chain.filter(exchange);
             }
@@ -103,7 +107,7 @@ public class AddForbiddenFieldsFromOriginalToPayloadInReplace
 
         policyInquiryData.setPolicyName(config.getPolicyName());
 
-        return this.authorizationClient.executePolicy(policyInquiryData, PolicyResponse.class).flatMap(pr -> {
+        return this.routePolicyBundle.executePolicy(exchange, policyInquiryData, PolicyResponse.class).flatMap(pr -> {
 
             if (pr.fields.size() > 0)
                 return this.takeFieldsFromTheOriginalRecord(pr.fields, exchange, chain);
@@ -0,0 +1,88 @@
+package com.tarcinapp.entitypersistencegateway.filters.common;
+
+import java.time.Duration;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.tarcinapp.entitypersistencegateway.clients.http.RequestDeadline;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Puts a deadline on the whole filter chain of the request, including the
+ * policy evaluations, the locks and the backend call.
+ *
+ * The budget is taken from the request timeout header of the client, in
+ * milliseconds, capped by the configured maximum. Requests without the header
+ * get the default budget. The deadline is carried in the Reactor context, so
+ * that the outbound calls bound their timeouts by the time left. A request
+ * exceeding its deadline is answered with 504 Gateway Timeout.
+ */
+@Component
+public class ApplyRequestDeadline implements GlobalFilter, Ordered {
+
+    @Value("${app.deadline.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.deadline.defaultMillis:10000}")
+    private long defaultMillis;
+
+    @Value("${app.deadline.maxMillis:30000}")
+    private long maxMillis;
+
+    @Value("${app.requestHeaders.requestTimeout:X-Request-Timeout}")
+    private String requestTimeoutHeader;
+
+    private Logger logger = LogManager.getLogger(ApplyRequestDeadline.class);
+
+    public ApplyRequestDeadline() {
+    }
+
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+
+        if (!this.enabled) {
+            return chain.filter(exchange);
+        }
+
+        Duration budget = Duration.ofMillis(this.budgetOf(exchange));
+
+        logger.debug("Request deadline is set to " + budget.toMillis() + "ms");
+
+        return chain.filter(exchange)
+                .timeout(budget, Mono.error(RequestDeadline::exceeded))
+                .contextWrite(context -> context.putAll(RequestDeadline.of(budget).readOnly()));
+    }
+
+    private long budgetOf(ServerWebExchange exchange) {
+        String requestTimeout = exchange.getRequest().getHeaders().getFirst(this.requestTimeoutHeader);
+
+        if (requestTimeout == null) {
+            return this.defaultMillis;
+        }
+
+        try {
+            long millis = Long.parseLong(requestTimeout.trim());
+
+            return millis > 0 ? Math.min(millis, this.maxMillis) : this.defaultMillis;
+        } catch (NumberFormatException e) {
+            logger.debug("Request timeout header is not a number: " + requestTimeout);
+
+            return this.defaultMillis;
+        }
+    }
+
+    /**
+     * Deadline must cover all filters of the chain.
+     */
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
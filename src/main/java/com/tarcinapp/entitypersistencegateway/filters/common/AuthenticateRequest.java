@@ -1,41 +1,44 @@
 package com.tarcinapp.entitypersistencegateway.filters.common;
 
+import java.io.IOException;
 import java.security.Key;
+import java.security.PublicKey;
 import java.time.ZonedDateTime;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tarcinapp.entitypersistencegateway.GatewaySecurityContext;
 import com.tarcinapp.entitypersistencegateway.KindPathConfigAttr;
+import com.tarcinapp.entitypersistencegateway.auth.AuthenticationRejectedException;
+import com.tarcinapp.entitypersistencegateway.auth.AuthenticationRejectedException.RejectionReason;
+import com.tarcinapp.entitypersistencegateway.auth.JwksKeyResolver;
 import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.auth.RejectedTokenCache;
+import com.tarcinapp.entitypersistencegateway.auth.TokenDigest;
+import com.tarcinapp.entitypersistencegateway.auth.VerifiedToken;
+import com.tarcinapp.entitypersistencegateway.auth.VerifiedTokenCache;
 import com.tarcinapp.entitypersistencegateway.clients.backend.IBackendClientBase;
+import com.tarcinapp.entitypersistencegateway.config.ClaimsInputConfig;
 import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+import com.tarcinapp.entitypersistencegateway.helpers.CachedBodyRequestDecorator;
+import com.tarcinapp.entitypersistencegateway.locks.RecordLock;
+import com.tarcinapp.entitypersistencegateway.locks.RecordLockService;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.redisson.Redisson;
-import org.redisson.api.RLock;
-import org.redisson.api.RLockReactive;
-import org.redisson.api.RReadWriteLock;
-import org.redisson.api.RReadWriteLockReactive;
-import org.redisson.api.RedissonClient;
-import org.redisson.api.RedissonReactiveClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
-import org.springframework.cloud.gateway.filter.factory.rewrite.ModifyRequestBodyGatewayFilterFactory;
 import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.stereotype.Component;
@@ -44,9 +47,13 @@ import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.server.ServerWebExchange;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.JwtParserBuilder;
 import io.jsonwebtoken.Jwts;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuples;
 
 /**
  * This filter authenticates the requests with Bearer token. If request is
@@ -70,7 +77,19 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
     IBackendClientBase backendBaseClient;
 
     @Autowired
-    RedissonReactiveClient redissonReactiveClient;
+    VerifiedTokenCache verifiedTokenCache;
+
+    @Autowired
+    RejectedTokenCache rejectedTokenCache;
+
+    @Autowired
+    JwksKeyResolver jwksKeyResolver;
+
+    @Autowired
+    RecordLockService recordLockService;
+
+    @Autowired
+    ClaimsInputConfig claimsInputConfig;
 
     @Value("${app.shortcode:#{tarcinapp}}")
     private String appShortcode;
@@ -83,6 +102,9 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
 
     private final static String GATEWAY_SECURITY_CONTEXT_ATTR = "GatewaySecurityContext";
     private final static String POLICY_INQUIRY_DATA_ATTR = "PolicyInquiryData";
+    private final static String BEARER_PREFIX = "Bearer ";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     Logger logger = LogManager.getLogger(AuthenticateRequest.class);
 
@@ -99,11 +121,13 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
             logger.debug("Authentication filter is started.");
 
             // set the GatewaySecurityContext to attributes
-            exchange.getAttributes().put(GATEWAY_SECURITY_CONTEXT_ATTR, new GatewaySecurityContext());
+            GatewaySecurityContext gatewaySecurityContext = new GatewaySecurityContext();
+            exchange.getAttributes().put(GATEWAY_SECURITY_CONTEXT_ATTR, gatewaySecurityContext);
 
             // set the PolicyInquiryData to attributes
             PolicyData policyData = new PolicyData();
             policyData.setAppShortcode(this.appShortcode);
+            policyData.setSecurityContext(gatewaySecurityContext);
             
             exchange.getAttributes().put(POLICY_INQUIRY_DATA_ATTR, policyData);
 
@@ -116,9 +140,9 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
              * doing anything. That is, leaving public key configuration empty means
              * requests will neither be authenticated nor authorized.
              */
-            if (this.key == null) {
+            if (this.key == null && !this.jwksKeyResolver.isEnabled()) {
                 logger.warn(
-                        "RS256 key is not configured. Requests won't be authenticated! Please configure a valid RS256 public key to enable authentication and authorization.");
+                        "RS256 key is not configured. Requests won't be authenticated! Please configure a valid RS256 public key or a JWKS URI to enable authentication and authorization.");
 
                 return chain.filter(exchange);
             }
@@ -133,12 +157,12 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
          * We have a public key configured. Authorization and authentication can be
          * performed.
          */
-        logger.debug("RS256 public key is configured. Request will be authenticated.");
+        logger.debug("Signing key is configured. Request will be authenticated.");
 
         /**
          * We can start to try authenticate the request.
          */
-        return this.authenticateUser(exchange).flatMap((claims) -> {
+        return this.authenticateUser(exchange).flatMap((verifiedToken) -> {
 
             /**
              * Request is authenticated. This filter has still tasks to do for authenticated
@@ -146,7 +170,7 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
              */
 
             try {
-                return this.onUserAuthenticated(claims, exchange, chain);
+                return this.onUserAuthenticated(verifiedToken, exchange, chain);
             } catch (InterruptedException e) {
                 logger.error(e);
 
@@ -165,6 +189,9 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
                     response.setStatusCode(HttpStatus.NOT_FOUND);
             } else if (e instanceof ResponseStatusException) {
                 response.setStatusCode(((ResponseStatusException) e).getStatusCode());
+            } else if (e instanceof AuthenticationRejectedException) {
+                // rejection is already counted and logged by the RejectedTokenCache
+                response.setStatusCode(HttpStatus.UNAUTHORIZED);
             } else {
                 response.setStatusCode(HttpStatus.UNAUTHORIZED);
                 logger.error(e);
@@ -181,100 +208,177 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
      * If a valid Bearer token can be extracted, it is put into
      * GatewaySecurityContext.
      * 
+     * Tokens verified before are served from the VerifiedTokenCache without
+     * repeating the signature verification, as long as their key is still in
+     * the JWKS. Likewise, tokens rejected recently are
+     * rejected again by the RejectedTokenCache without parsing them.
+     * 
      * @param exchange
      * @return
      */
-    private Mono<Claims> authenticateUser(ServerWebExchange exchange) {
+    private Mono<VerifiedToken> authenticateUser(ServerWebExchange exchange) {
         ServerHttpRequest request = exchange.getRequest();
+        String authHeader = request.getHeaders().getFirst("Authorization");
 
-        if (!request.getHeaders().containsKey("Authorization")) {
-            return Mono.error(new Exception("No Authorization header"));
+        if (authHeader == null) {
+            return this.reject(null, RejectionReason.MISSING_HEADER);
         }
 
-        String authHeader = request.getHeaders().get("Authorization").get(0);
-
-        if (!authHeader.startsWith("Bearer ")) {
-            return Mono.error(new Exception("Only token authorization is allowed"));
+        if (!authHeader.startsWith(BEARER_PREFIX)) {
+            return this.reject(null, RejectionReason.NOT_BEARER);
         }
 
-        String jwt = authHeader.replaceFirst("Bearer\\s", "");
+        String jwt = authHeader.substring(BEARER_PREFIX.length());
+        String tokenDigest = TokenDigest.of(jwt);
 
-        try {
-            Claims claims = Jwts.parserBuilder()
-                    .setSigningKey(this.key)
-                    .setAllowedClockSkewSeconds(this.clockSkewSeconds)
-                    .build()
-                    .parseClaimsJws(jwt)
-                    .getBody();
+        VerifiedToken verifiedToken = this.verifiedTokenCache.get(tokenDigest);
 
-            if(!claims.getIssuer().equals(this.tokenIssuer)) {
-                throw new JwtException("Invalid issuer");
-            }
+        /*
+         * Key the token is verified with may be removed from the JWKS since then. Such
+         * a token is verified again, with the current key set.
+         */
+        if (verifiedToken != null && this.jwksKeyResolver.isEnabled()
+                && !this.jwksKeyResolver.hasKey(verifiedToken.getKeyId())) {
+            logger.debug("Key of the cached JWT token is no longer in the key set. Token is verified again.");
 
-            logger.debug("JWT token is validated.");
+            this.verifiedTokenCache.invalidate(tokenDigest);
+            verifiedToken = null;
+        }
+
+        if (verifiedToken != null) {
+            logger.debug("JWT token is found in verified token cache.");
 
             // put the jwt into GatewaySecurityContext
             this.getSecurityContext(exchange)
                     .setEncodedJwt(jwt);
 
-            return Mono.just(claims);
-        } catch (JwtException e) {
-            logger.error(e);
-            return Mono.error(new Exception("Invalid Authorization header", e));
+            return Mono.just(verifiedToken);
+        }
+
+        // same token is rejected recently, do not try to verify it again
+        RejectionReason previousRejection = this.rejectedTokenCache.get(tokenDigest);
+
+        if (previousRejection != null) {
+            return Mono.error(AuthenticationRejectedException.of(previousRejection));
+        }
+
+        /*
+         * When keys are resolved from JWKS, make sure that the key referenced by the
+         * token is loaded before verifying the token.
+         */
+        Mono<Void> signingKeyReady = this.jwksKeyResolver.isEnabled()
+                ? this.jwksKeyResolver.ensureKey(jwt)
+                : Mono.empty();
+
+        return signingKeyReady.then(Mono.defer(() -> {
+
+            try {
+                Jws<Claims> jws = this.buildJwtParser()
+                        .parseSignedClaims(jwt);
+                Claims claims = jws.getPayload();
+
+                if (!claims.getIssuer().equals(this.tokenIssuer)) {
+                    return this.reject(tokenDigest, RejectionReason.INVALID_ISSUER);
+                }
+
+                logger.debug("JWT token is validated.");
+                logger.debug("Claims: " + claims);
+
+                VerifiedToken validatedToken = VerifiedToken.fromClaims(claims,
+                        this.claimsInputConfig.getCustomClaims(), jws.getHeader().getKeyId());
+                this.verifiedTokenCache.put(tokenDigest, validatedToken);
+
+                // put the jwt into GatewaySecurityContext
+                this.getSecurityContext(exchange)
+                        .setEncodedJwt(jwt);
+
+                return Mono.just(validatedToken);
+            } catch (JwtException e) {
+                return this.reject(tokenDigest, RejectedTokenCache.reasonOf(e));
+            }
+        }));
+    }
+
+    /**
+     * Records the rejection and returns the precomputed exception of the reason.
+     * 
+     * @param tokenDigest digest of the rejected token, null if there is no token
+     * @param reason
+     * @return
+     */
+    private Mono<VerifiedToken> reject(String tokenDigest, RejectionReason reason) {
+        this.rejectedTokenCache.reject(tokenDigest, reason);
+
+        return Mono.error(AuthenticationRejectedException.of(reason));
+    }
+
+    /**
+     * Signing key is resolved by the kid header if JWKS is configured. Otherwise
+     * the static public key is used. Signature algorithm is taken from the token
+     * header and verified against the type of the key, so RSA, EC and EdDSA keys
+     * are all supported.
+     * 
+     * @return
+     */
+    private JwtParser buildJwtParser() {
+        JwtParserBuilder parserBuilder = Jwts.parser()
+                .clockSkewSeconds(this.clockSkewSeconds);
+
+        if (this.jwksKeyResolver.isEnabled()) {
+            return parserBuilder
+                    .keyLocator(this.jwksKeyResolver)
+                    .build();
         }
+
+        return parserBuilder
+                .verifyWith((PublicKey) this.key)
+                .build();
     }
 
     /**
      * A facade method for performing some tasks after user authentication
      * 
-     * @param claims
+     * @param verifiedToken
      * @param exchange
      * @param chain
      * @return
      * @throws InterruptedException
      */
-    private Mono<Void> onUserAuthenticated(Claims claims, ServerWebExchange exchange, GatewayFilterChain chain)
+    private Mono<Void> onUserAuthenticated(VerifiedToken verifiedToken, ServerWebExchange exchange,
+            GatewayFilterChain chain)
             throws InterruptedException {
-        logger.debug("Claims: " + claims);
 
         /*
          * Fill GatewaySecurityContext with data extracted from JWT claims and put it to
          * attributes.
          */
-        this.buildGatewaySecurityContext(claims, exchange);
+        this.buildGatewaySecurityContext(verifiedToken, exchange);
+
+        // policies configured for the claims input receive the verified claims instead of the encoded JWT
+        if (this.claimsInputConfig.isEnabled()) {
+            this.getPolicyInquriyData(exchange).setClaims(verifiedToken.toPolicyClaims());
+        }
 
         return buildPolicyInquiryData(exchange, chain);
     }
 
     /**
-     * This method takes JWT claims for authenticated users and extracts some data.
-     * This context data includes: subject, roles, groups and auth party.
+     * This method takes the data extracted from JWT claims for authenticated
+     * users. This context data includes: subject, roles, groups and auth party.
      * 
      * Extracted data builds the GatewaySecurityContext.
      * 
-     * @param claims
+     * @param verifiedToken
      * @param exchange
      */
-    private void buildGatewaySecurityContext(Claims claims, ServerWebExchange exchange) {
+    private void buildGatewaySecurityContext(VerifiedToken verifiedToken, ServerWebExchange exchange) {
         GatewaySecurityContext gc = getSecurityContext(exchange);
 
-        // extract data
-        String subject = claims.getSubject();
-        String authParth = claims.get("azp", String.class);
-
-        @SuppressWarnings("unchecked")
-        ArrayList<String> groups = Optional.ofNullable((ArrayList<String>) claims.get("groups", ArrayList.class))
-                .orElse(new ArrayList<String>());
-
-        @SuppressWarnings("unchecked")
-        ArrayList<String> roles = Optional.ofNullable((ArrayList<String>) claims.get("roles"))
-                .orElse(new ArrayList<String>());
-
         // put extracted data into context
-        gc.setAuthSubject(subject);
-        gc.setGroups(groups);
-        gc.setRoles(roles);
-        gc.setAuthParty(authParth);
+        gc.setAuthSubject(verifiedToken.getSubject());
+        gc.setGroups(verifiedToken.getGroups());
+        gc.setRoles(verifiedToken.getRoles());
+        gc.setAuthParty(verifiedToken.getAuthParty());
     }
 
     /**
@@ -313,40 +417,7 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
 
             if (recordId != null) {
 
-                final long currentThreadId = Thread.currentThread().getId();
-                final RReadWriteLockReactive lock = redissonReactiveClient.getReadWriteLock(appShortcode + "+lock-on-" + recordId);
-                final RLockReactive writeLock = lock.writeLock();
-
-                return writeLock.isLocked()
-                        .flatMap(locked -> {
-
-                            if (locked) {
-                                throw new ResponseStatusException(HttpStatus.LOCKED,
-                                        "Resource already locked. Resource id: " + recordId);
-                            }
-
-                            return writeLock
-                                    .tryLock(3, 30, TimeUnit.SECONDS, currentThreadId)
-                                    .flatMap(lockAcquired -> {
-
-                                        if (!lockAcquired) {
-                                            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
-                                                    "Failed to acquire write lock on resource " + recordId);
-                                        }
-
-                                        logger.debug("Lock acquired for the resource: " + recordId);
-
-                                        return preparePolicyInquiryDataWithPayloadAndOriginalRecord(exchange, chain);
-                                    })
-                                    .onErrorResume(throwable  -> {
-
-                                        return writeLock.unlock(currentThreadId)
-                                            .then(Mono.error(throwable));
-                                    })
-                                    .doFinally(signalType -> {
-                                        writeLock.unlock(currentThreadId).subscribe();
-                                    });
-                        });
+                return preparePolicyInquiryDataWithPayloadAndOriginalRecord(recordId, exchange, chain);
             }
         }
 
@@ -370,7 +441,7 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
             // path becomes /my-model/{recordId}
             String rootPath = requestPath.replaceAll("\\/" + recordId + "\\/.*", "\\/" + recordId);
 
-            return this.backendBaseClient.get(rootPath, AnyRecordBase.class)
+            return this.backendBaseClient.getRecord(recordId, rootPath)
                     .flatMap(originalRecord -> {
 
                         // set original record to the policy data
@@ -383,76 +454,113 @@ public class AuthenticateRequest extends AbstractGatewayFilterFactory<Authentica
         return chain.filter(exchange);
     }
 
-    // add incoming request body to the policy inquiry data
-    // add original record retrieved from backend to the policy inquiry data
-    private Mono<Void> preparePolicyInquiryDataWithPayloadAndOriginalRecord(ServerWebExchange exchange,
-            GatewayFilterChain chain) {
+    /**
+     * Write operations on a single record need the write-lock on the record, the
+     * request payload and the original record (for PUT and PATCH) before the
+     * policy can be evaluated. The lock is acquired and the body is read in
+     * parallel. The original record is retrieved only once the lock is held,
+     * bypassing the record cache, so that the policy never sees a version of the
+     * record older than the last completed write.
+     * 
+     * If the lock or the body fails, e.g. the record is already locked, the other
+     * one is cancelled. Lock is released when the request is completed, failed or
+     * cancelled.
+     * 
+     * @param recordId
+     * @param exchange
+     * @param chain
+     * @return
+     */
+    private Mono<Void> preparePolicyInquiryDataWithPayloadAndOriginalRecord(String recordId,
+            ServerWebExchange exchange, GatewayFilterChain chain) {
         ServerHttpRequest request = exchange.getRequest();
         PolicyData policyInquiryData = getPolicyInquriyData(exchange);
+        AtomicReference<RecordLock> acquiredLock = new AtomicReference<>();
 
-        ModifyRequestBodyGatewayFilterFactory.Config modifyRequestConfig = new ModifyRequestBodyGatewayFilterFactory.Config()
-                .setContentType(MediaType.APPLICATION_JSON_VALUE)
-                .setRewriteFunction(String.class, String.class, (exchange1, inboundJsonRequestStr) -> {
+        Mono<RecordLock> lock = this.recordLockService.acquire(appShortcode + "+record-lock:" + recordId)
+                .doOnNext(acquiredLock::set);
+
+        Mono<byte[]> body = DataBufferUtils.join(request.getBody())
+                .map(dataBuffer -> {
+                    byte[] bytes = new byte[dataBuffer.readableByteCount()];
+                    dataBuffer.read(bytes);
+                    DataBufferUtils.release(dataBuffer);
+
+                    return bytes;
+                })
+                .defaultIfEmpty(new byte[0]);
+
+        Mono<Optional<AnyRecordBase>> originalRecord = Mono.just(Optional.empty());
+
+        /**
+         * if this operation is to perform update on existing record, then we need to
+         * include the original record to the policy.
+         * 
+         * Request may be coming from kindPath. Thus, we are first checking if the
+         * request is a kindPath request.
+         * If it is a kindPath request, then in order to query for the original record
+         * from the backend, we need to know the original resource URL, which is
+         * accessible from the KindPathConfigAttr.
+         */
+        if (request.getMethod() == HttpMethod.PUT || request.getMethod() == HttpMethod.PATCH) {
+            String originalResourceUrl = request.getPath().toString();
+
+            // check if we have a kindPath configuration
+            KindPathConfigAttr kindPathConfigAttr = exchange.getAttribute("KindPathConfigAttr");
+
+            if (kindPathConfigAttr != null && kindPathConfigAttr.isKindPathConfigured()) {
+
+                // we have a kindPath configuration
+                originalResourceUrl = kindPathConfigAttr.getOriginalResourceUrl();
+            }
+
+            originalRecord = this.backendBaseClient.getRecordForUpdate(originalResourceUrl)
+                    .map(Optional::of)
+                    .defaultIfEmpty(Optional.empty());
+        }
+
+        Mono<Optional<AnyRecordBase>> originalRecordUnderLock = originalRecord;
+
+        return Mono.zip(lock, body)
+                .flatMap(lockAndBody -> originalRecordUnderLock
+                        .map(original -> Tuples.of(lockAndBody.getT2(), original)))
+                .flatMap(results -> {
+                    byte[] payload = results.getT1();
+
+                    logger.debug("Lock is acquired, payload is read and original record is retrieved for the resource: "
+                            + recordId);
 
                     try {
-                        // parse the inbound string as JSON
-                        ObjectMapper objectMapper = new ObjectMapper();
-                        Map<String, Object> payloadJSON;
-                        payloadJSON = objectMapper.readValue(inboundJsonRequestStr,
+                        // parse the inbound payload as JSON
+                        Map<String, Object> payloadJSON = this.objectMapper.readValue(payload,
                                 new TypeReference<Map<String, Object>>() {
                                 });
 
-                        // prepare the record base from the request payload
-                        AnyRecordBase recordBaseFromPayload = this.prepareRecordBaseFromPayload(payloadJSON);
-
                         // let the policy data contain record base of request payload
-                        policyInquiryData.setRequestPayload(recordBaseFromPayload);
+                        policyInquiryData.setRequestPayload(this.prepareRecordBaseFromPayload(payloadJSON));
 
                         logger.debug("Request payload attached to the policy data.");
-
-                        /**
-                         * if this operation is to perform update on existing record, then we need to
-                         * include the
-                         * original record to the policy.
-                         * 
-                         * Request may be coming from kindPath. Thus, we are first checking if the
-                         * request
-                         * is a kindPath request.
-                         * If it is a kindPath request, then in order to query for the original record
-                         * from the backend, we need to know the original resource URL, which is
-                         * accessible from the
-                         * KindPathConfigAttr.
-                         */
-                        if (request.getMethod() == HttpMethod.PUT || request.getMethod() == HttpMethod.PATCH) {
-                            String originalResourceUrl = request.getPath().toString();
-
-                            // check if we have a kindPath configuration
-                            KindPathConfigAttr kindPathConfigAttr = exchange.getAttribute("KindPathConfigAttr");
-
-                            if (kindPathConfigAttr != null && kindPathConfigAttr.isKindPathConfigured()) {
-
-                                // we have a kindPath configuration
-                                originalResourceUrl = kindPathConfigAttr.getOriginalResourceUrl();
-                            }
-
-                            return this.backendBaseClient.get(originalResourceUrl, AnyRecordBase.class)
-                                    .flatMap(originalRecord -> {
-
-                                        // set original record to the policy data
-                                        policyInquiryData.setOriginalRecord(originalRecord);
-
-                                        return Mono.just(inboundJsonRequestStr);
-                                    });
-                        }
-                    } catch (JsonProcessingException e) {
+                    } catch (IOException e) {
                         logger.error(e);
                         throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY);
                     }
 
-                    return Mono.just(inboundJsonRequestStr);
-                });
+                    // set original record to the policy data
+                    results.getT2().ifPresent(policyInquiryData::setOriginalRecord);
+
+                    // body is consumed, subsequent filters read it from the memory
+                    ServerHttpRequest cachedBodyRequest = new CachedBodyRequestDecorator(request, payload,
+                            exchange.getResponse().bufferFactory());
+
+                    return chain.filter(exchange.mutate().request(cachedBodyRequest).build());
+                })
+                .doFinally(signalType -> {
+                    RecordLock acquired = acquiredLock.getAndSet(null);
 
-        return new ModifyRequestBodyGatewayFilterFactory().apply(modifyRequestConfig).filter(exchange, chain);
+                    if (acquired != null) {
+                        this.recordLockService.release(acquired).subscribe();
+                    }
+                });
     }
 
     /**
@@ -1,12 +1,14 @@
 package com.tarcinapp.entitypersistencegateway.filters.common;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.tarcinapp.entitypersistencegateway.auth.IAuthorizationClient;
+import com.tarcinapp.entitypersistencegateway.auth.JwksKeyResolver;
 import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyResult;
+import com.tarcinapp.entitypersistencegateway.auth.RoutePolicyBundle;
+import com.tarcinapp.entitypersistencegateway.clients.opa.PolicyInputWriter;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -26,11 +28,17 @@ import reactor.core.publisher.Mono;
 public class AuthorizeRequest extends AbstractGatewayFilterFactory<AuthorizeRequest.Config> {
 
     @Autowired
-    IAuthorizationClient authorizationClient;
+    RoutePolicyBundle routePolicyBundle;
+
+    @Autowired
+    PolicyInputWriter policyInputWriter;
 
     @Autowired(required = false)
     private Key key;
 
+    @Autowired
+    JwksKeyResolver jwksKeyResolver;
+
     private Logger logger = LogManager.getLogger(AuthorizeRequest.class);
 
     private final static String POLICY_INQUIRY_DATA_ATTR = "PolicyInquiryData";
@@ -47,7 +55,7 @@ public class AuthorizeRequest extends AbstractGatewayFilterFactory<AuthorizeRequ
 
             logger.debug("Authorization filter is started. Policy name: " + config.getPolicyName());
 
-            if (this.key == null) {
+            if (this.key == null && !this.jwksKeyResolver.isEnabled()) {
                 logger.warn("RS256 key is not configured. This request won't be authorized.");
                 return chain.filter(exchange);
             }
@@ -75,7 +83,7 @@ public class AuthorizeRequest extends AbstractGatewayFilterFactory<AuthorizeRequ
 
         policyInquiryData.setPolicyName(config.getPolicyName());
 
-        return this.executePolicy(policyInquiryData)
+        return this.executePolicy(exchange, policyInquiryData)
             .flatMap(result -> {
 
                 if(result.equals(true)) {
@@ -102,18 +110,19 @@ public class AuthorizeRequest extends AbstractGatewayFilterFactory<AuthorizeRequ
     /**
      * An in-class wrapper on AuthorizationClient's execute policy.
      * The only functionality we add here by wrapping is DEBUG logging.
+     * Policy is evaluated through the route's policy bundle.
+     * @param exchange
      * @param policyData
      * @return
      */
-    private Mono<Boolean> executePolicy(PolicyData policyData) {
+    private Mono<Boolean> executePolicy(ServerWebExchange exchange, PolicyData policyData) {
 
         if (logger.getLevel().compareTo(Level.DEBUG) >= 0) {
             logger.debug("Policy data is prepared.");
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.registerModule(new JavaTimeModule());
 
+            // reuses the serialized input which is sent to the PEP
             try {
-                String policyDataStr = mapper.writeValueAsString(policyData);
+                String policyDataStr = new String(policyInputWriter.serialize(policyData), StandardCharsets.UTF_8);
                 logger.debug("Policy data: {}", policyDataStr);
             } catch (JsonProcessingException e) {
                 logger.debug("Unable to serialize policy data to JSON string.");
@@ -122,7 +131,7 @@ public class AuthorizeRequest extends AbstractGatewayFilterFactory<AuthorizeRequ
 
         logger.debug("Sending policy data to the PEP.");
 
-        return authorizationClient.executePolicy(policyData)
+        return routePolicyBundle.executePolicy(exchange, policyData, PolicyResult.class)
             .flatMap(result -> {
 
                 if (result.isAllow()) {
@@ -0,0 +1,168 @@
+package com.tarcinapp.entitypersistencegateway.filters.common;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.tarcinapp.entitypersistencegateway.GatewaySecurityContext;
+import com.tarcinapp.entitypersistencegateway.cache.RecordResponseCache;
+import com.tarcinapp.entitypersistencegateway.cache.RecordResponseCache.CachedResponse;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * This filter is used in the routes retrieving a single record by its id
+ * (findEntityById, findListById...). Successful responses are cached in the
+ * RecordResponseCache, and the following requests of the same caller on the
+ * same URI are answered from the cache without calling the backend.
+ *
+ * Cached responses are dropped when the record is invalidated through the
+ * CacheInvalidationBus, thus a write on the record, on this node or on any
+ * other replica, is visible to the next read.
+ *
+ * The filter must be placed after the authorization, so that each request is
+ * still authorized, and before the response modifying filters, so that the
+ * masked response is cached. Responses are kept per caller, as the masked
+ * fields depend on the caller.
+ */
+@Component
+public class CacheRecordResponse extends AbstractGatewayFilterFactory<CacheRecordResponse.Config> {
+
+    private final static String GATEWAY_SECURITY_CONTEXT_ATTR = "GatewaySecurityContext";
+
+    // these headers are generated per response and are not served from the cache
+    private final static Set<String> NOT_CACHED_HEADERS = Set.of("content-length", "transfer-encoding", "date",
+            "connection", "set-cookie");
+
+    @Autowired
+    RecordResponseCache recordResponseCache;
+
+    private Logger logger = LogManager.getLogger(CacheRecordResponse.class);
+
+    public CacheRecordResponse() {
+        super(Config.class);
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+
+        return (exchange, chain) -> {
+            logger.debug("CacheRecordResponse filter is started.");
+
+            String recordId = ServerWebExchangeUtils.getUriTemplateVariables(exchange).get("recordId");
+
+            if (!this.recordResponseCache.isEnabled() || recordId == null
+                    || exchange.getRequest().getMethod() != HttpMethod.GET) {
+                return chain.filter(exchange);
+            }
+
+            String key = cacheKey(exchange, recordId);
+            CachedResponse cached = this.recordResponseCache.get(key);
+
+            if (cached != null) {
+                logger.debug("Record " + recordId + " is served from the response cache.");
+
+                return this.writeCached(cached, exchange.getResponse());
+            }
+
+            long requestStartedAt = System.nanoTime();
+
+            ServerHttpResponseDecorator cachingResponse = new ServerHttpResponseDecorator(exchange.getResponse()) {
+
+                @Override
+                public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                    HttpStatusCode status = this.getStatusCode() != null ? this.getStatusCode() : HttpStatus.OK;
+
+                    if (!status.is2xxSuccessful()) {
+                        return super.writeWith(body);
+                    }
+
+                    return DataBufferUtils.join(Flux.from(body))
+                            .map(dataBuffer -> {
+                                byte[] bytes = new byte[dataBuffer.readableByteCount()];
+                                dataBuffer.read(bytes);
+                                DataBufferUtils.release(dataBuffer);
+
+                                return bytes;
+                            })
+                            .defaultIfEmpty(new byte[0])
+                            .flatMap(bytes -> {
+                                recordResponseCache.put(key,
+                                        new CachedResponse(recordId, status, cachedHeaders(this.getHeaders()), bytes),
+                                        requestStartedAt);
+
+                                return super.writeWith(Mono.just(this.bufferFactory().wrap(bytes)));
+                            });
+                }
+            };
+
+            return chain.filter(exchange.mutate().response(cachingResponse).build());
+        };
+    }
+
+    private Mono<Void> writeCached(CachedResponse cached, ServerHttpResponse response) {
+        response.setStatusCode(cached.getStatusCode());
+        cached.getHeaders().forEach((name, values) -> response.getHeaders().put(name, values));
+
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(cached.getBody())));
+    }
+
+    /**
+     * Responses are kept per record, caller and request URI. Roles and groups are
+     * part of the key as the token of the same subject may carry different ones.
+     *
+     * @param exchange
+     * @param recordId
+     * @return
+     */
+    private String cacheKey(ServerWebExchange exchange, String recordId) {
+        GatewaySecurityContext gc = exchange.getAttribute(GATEWAY_SECURITY_CONTEXT_ATTR);
+
+        StringBuilder key = new StringBuilder(recordId).append('|');
+
+        if (gc != null) {
+            key.append(gc.getAuthSubject()).append('|')
+                    .append(gc.getRoles()).append('|')
+                    .append(gc.getGroups()).append('|');
+        }
+
+        return key.append(exchange.getRequest().getURI().getRawPath()).append('?')
+                .append(exchange.getRequest().getURI().getRawQuery())
+                .toString();
+    }
+
+    private static HttpHeaders cachedHeaders(HttpHeaders headers) {
+        HttpHeaders cached = new HttpHeaders();
+
+        headers.forEach((name, values) -> {
+
+            if (!NOT_CACHED_HEADERS.contains(name.toLowerCase())) {
+                cached.put(name, new ArrayList<>(values));
+            }
+        });
+
+        return cached;
+    }
+
+    public static class Config {
+
+    }
+}
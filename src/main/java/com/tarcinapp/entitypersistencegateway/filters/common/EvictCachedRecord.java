@@ -0,0 +1,97 @@
+package com.tarcinapp.entitypersistencegateway.filters.common;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.tarcinapp.entitypersistencegateway.KindPathConfigAttr;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.cache.CacheInvalidationBus;
+
+/**
+ * This filter is used in the routes performing write operations (PUT, PATCH,
+ * DELETE). Once the request is completed, the record is invalidated in the
+ * caches of this node and of the other gateway replicas, so that the next
+ * request on the record retrieves the up to date record from the backend.
+ *
+ * Routes without a recordId (e.g. update-all) may modify any record, thus all
+ * records are invalidated. Routes whose recordId is not the id of a cached
+ * record, such as the relation routes, set 'invalidateAll' so that the
+ * entities and lists the relation connects are invalidated too.
+ *
+ * Record is invalidated regardless of the response status, as a failed request
+ * may still have modified the record.
+ */
+@Component
+public class EvictCachedRecord extends AbstractGatewayFilterFactory<EvictCachedRecord.Config> {
+
+    @Autowired
+    CacheInvalidationBus cacheInvalidationBus;
+
+    private final static String POLICY_INQUIRY_DATA_ATTR = "PolicyInquiryData";
+    private final static String KIND_PATH_CONFIG_ATTR = "KindPathConfigAttr";
+
+    private Logger logger = LogManager.getLogger(EvictCachedRecord.class);
+
+    public EvictCachedRecord() {
+        super(Config.class);
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+
+        return (exchange, chain) -> {
+            logger.debug("EvictCachedRecord filter is started.");
+
+            String recordId = ServerWebExchangeUtils.getUriTemplateVariables(exchange).get("recordId");
+
+            if (recordId == null || config.isInvalidateAll()) {
+                return chain.filter(exchange)
+                        .doFinally(signalType -> this.cacheInvalidationBus.invalidateAll());
+            }
+
+            return chain.filter(exchange)
+                    .doFinally(signalType -> this.cacheInvalidationBus.invalidate(recordId, getKind(exchange)));
+        };
+    }
+
+    /**
+     * Kind of the record is taken from the kindPath configuration, or from the
+     * original record if it is retrieved for the policy inquiry.
+     *
+     * @param exchange
+     * @return
+     */
+    private String getKind(ServerWebExchange exchange) {
+        KindPathConfigAttr kindPathConfigAttr = exchange.getAttribute(KIND_PATH_CONFIG_ATTR);
+
+        if (kindPathConfigAttr != null && kindPathConfigAttr.isKindPathConfigured()) {
+            return kindPathConfigAttr.getKindName();
+        }
+
+        PolicyData policyData = exchange.getAttribute(POLICY_INQUIRY_DATA_ATTR);
+
+        if (policyData != null && policyData.getOriginalRecord() != null) {
+            return policyData.getOriginalRecord().get_kind();
+        }
+
+        return null;
+    }
+
+    public static class Config {
+        private boolean invalidateAll = false;
+
+        public boolean isInvalidateAll() {
+            return this.invalidateAll;
+        }
+
+        public void setInvalidateAll(boolean invalidateAll) {
+            this.invalidateAll = invalidateAll;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.tarcinapp.entitypersistencegateway.filters.common;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.reactivestreams.Publisher;
+import org.redisson.api.RBucketReactive;
+import org.redisson.api.RedissonReactiveClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tarcinapp.entitypersistencegateway.GatewaySecurityContext;
+import com.tarcinapp.entitypersistencegateway.dto.IdempotentResponse;
+import com.tarcinapp.entitypersistencegateway.helpers.PayloadDigest;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * This filter implements the Idempotency-Key header for the create routes.
+ *
+ * The first request with a key marks the key as in-flight in Redis, together
+ * with the digest of its payload. The response status, headers and body are
+ * captured as they are written to the client, that is after the response
+ * modifying filters of the route such as field masking, and stored under the
+ * key once the response is sent. A retry arriving while the first request is
+ * still in-flight waits for its result.
+ *
+ * A retry with the same key and the same payload is answered with the stored
+ * response as it is. The rest of the filter chain is not run: the request is
+ * not authorized again, the backend is not called and the fields are not
+ * masked again. Keys are scoped by the authenticated user, thus this filter
+ * must be placed after AuthenticateRequest, and after RequestRateLimiter so
+ * that the replays are still rate limited. Reusing a key with a different
+ * payload is rejected with 422.
+ *
+ * 5xx responses are not stored, the key is released so that the client can
+ * retry. Once the backend answered with any other status the key is never
+ * released. Storing the response is best effort, if it fails the key stays
+ * in-flight until its TTL expires, thus a retry can't create the record
+ * again.
+ */
+@Component
+public class HandleIdempotencyKey extends AbstractGatewayFilterFactory<HandleIdempotencyKey.Config> {
+
+    private static final Set<String> NOT_REPLAYED_HEADERS = Set.of(
+            HttpHeaders.CONTENT_LENGTH.toLowerCase(),
+            HttpHeaders.TRANSFER_ENCODING.toLowerCase(),
+            HttpHeaders.CONNECTION.toLowerCase(),
+            HttpHeaders.SET_COOKIE.toLowerCase());
+
+    private final static String GATEWAY_SECURITY_CONTEXT_ATTR = "GatewaySecurityContext";
+    private final static String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    // marks a key released by its owner while polling
+    private static final IdempotentResponse RELEASED = new IdempotentResponse();
+
+    @Autowired
+    RedissonReactiveClient redissonReactiveClient;
+
+    @Value("${app.shortcode:#{tarcinapp}}")
+    private String appShortcode;
+
+    @Value("${app.requestHeaders.idempotencyKey:Idempotency-Key}")
+    private String idempotencyKeyHeader;
+
+    @Value("${app.idempotency.ttlSeconds:86400}")
+    private long ttlSeconds;
+
+    @Value("${app.idempotency.inFlightTtlSeconds:30}")
+    private long inFlightTtlSeconds;
+
+    @Value("${app.idempotency.waitTimeoutSeconds:10}")
+    private long waitTimeoutSeconds;
+
+    @Value("${app.idempotency.pollIntervalMillis:100}")
+    private long pollIntervalMillis;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Logger logger = LogManager.getLogger(HandleIdempotencyKey.class);
+
+    public HandleIdempotencyKey() {
+        super(Config.class);
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+
+        return (exchange, chain) -> {
+            logger.debug("HandleIdempotencyKey filter is started.");
+
+            ServerHttpRequest request = exchange.getRequest();
+            String idempotencyKey = request.getHeaders().getFirst(this.idempotencyKeyHeader);
+
+            if (idempotencyKey == null || idempotencyKey.isBlank()) {
+                return chain.filter(exchange);
+            }
+
+            return PayloadDigest.read(exchange)
+                    .flatMap(cachedBodyExchange -> {
+                        RBucketReactive<String> bucket = this.redissonReactiveClient
+                                .getBucket(this.storageKey(exchange, idempotencyKey), StringCodec.INSTANCE);
+
+                        return this.handle(bucket, PayloadDigest.of(cachedBodyExchange), cachedBodyExchange, chain);
+                    })
+                    .onErrorResume(e -> {
+
+                        ServerHttpResponse response = exchange.getResponse();
+
+                        if (e instanceof ResponseStatusException) {
+                            response.setStatusCode(((ResponseStatusException) e).getStatusCode());
+                        } else {
+                            response.setStatusCode(HttpStatus.INTERNAL_SERVER_ERROR);
+                            logger.error(e);
+                        }
+
+                        return response.setComplete();
+                    });
+        };
+    }
+
+    /**
+     * Either becomes the owner of the key and processes the request, or answers
+     * the request with the response of the owner.
+     */
+    private Mono<Void> handle(RBucketReactive<String> bucket, String payloadDigest, ServerWebExchange exchange,
+            GatewayFilterChain chain) {
+
+        return bucket.setIfAbsent(this.write(IdempotentResponse.inFlight(payloadDigest)),
+                Duration.ofSeconds(this.inFlightTtlSeconds))
+                .flatMap(owner -> {
+
+                    if (owner) {
+                        logger.debug("Idempotency key is registered. Request will be processed.");
+
+                        return this.processAndStore(bucket, payloadDigest, exchange, chain);
+                    }
+
+                    return this.awaitCompletion(bucket, payloadDigest)
+                            .flatMap(stored -> {
+
+                                if (!stored.getPayloadDigest().equals(payloadDigest)) {
+                                    throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                                            "Idempotency key is already used with a different payload");
+                                }
+
+                                return this.replay(stored, exchange);
+                            })
+                            // owner of the key failed and released it, try again
+                            .switchIfEmpty(Mono.defer(() -> this.handle(bucket, payloadDigest, exchange, chain)));
+                });
+    }
+
+    /**
+     * Polls the key until the owner request stores its response. Emits
+     * immediately if the key is used with a different payload, and emits empty if
+     * the key is released by the owner.
+     */
+    private Mono<IdempotentResponse> awaitCompletion(RBucketReactive<String> bucket, String payloadDigest) {
+
+        return Flux.interval(Duration.ZERO, Duration.ofMillis(this.pollIntervalMillis))
+                .concatMap(tick -> bucket.get()
+                        .map(this::read)
+                        .defaultIfEmpty(RELEASED))
+                .filter(stored -> stored == RELEASED || stored.isCompleted()
+                        || !payloadDigest.equals(stored.getPayloadDigest()))
+                .next()
+                .filter(stored -> stored != RELEASED)
+                .timeout(Duration.ofSeconds(this.waitTimeoutSeconds),
+                        Mono.error(new ResponseStatusException(HttpStatus.CONFLICT,
+                                "A request with the same idempotency key is still in progress")));
+    }
+
+    private Mono<Void> processAndStore(RBucketReactive<String> bucket, String payloadDigest,
+            ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpResponse originalResponse = exchange.getResponse();
+        // set once the backend answered with a non 5xx, from then on the key is never released
+        AtomicBoolean answered = new AtomicBoolean(false);
+
+        ServerHttpResponseDecorator capturingResponse = new ServerHttpResponseDecorator(originalResponse) {
+
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+
+                return DataBufferUtils.join(Flux.from(body))
+                        .map(dataBuffer -> {
+                            byte[] bytes = new byte[dataBuffer.readableByteCount()];
+                            dataBuffer.read(bytes);
+                            DataBufferUtils.release(dataBuffer);
+
+                            return bytes;
+                        })
+                        .defaultIfEmpty(new byte[0])
+                        .flatMap(bytes -> {
+                            HttpStatusCode status = this.getStatusCode() != null ? this.getStatusCode() : HttpStatus.OK;
+
+                            Mono<Void> store = Mono.empty();
+
+                            if (!status.is5xxServerError()) {
+                                answered.set(true);
+
+                                IdempotentResponse response = new IdempotentResponse();
+                                response.setPayloadDigest(payloadDigest);
+                                response.setCompleted(true);
+                                response.setStatus(status.value());
+                                response.setHeaders(replayedHeaders(this.getHeaders()));
+                                response.setBody(bytes);
+
+                                store = Mono.defer(() -> bucket.set(write(response), ttlSeconds, TimeUnit.SECONDS))
+                                        .onErrorResume(e -> {
+                                            // the record is created, the key stays in-flight until its TTL expires
+                                            logger.error("Response of the idempotency key can't be stored.", e);
+                                            return Mono.empty();
+                                        });
+                            }
+
+                            // the response is sent first, a failing store must not fail a completed request
+                            return super.writeWith(Mono.just(this.bufferFactory().wrap(bytes))).then(store);
+                        });
+            }
+        };
+
+        return chain.filter(exchange.mutate().response(capturingResponse).build())
+                .then(Mono.defer(() -> this.releaseIfNotAnswered(bucket, answered)))
+                .onErrorResume(e -> this.releaseIfNotAnswered(bucket, answered).then(Mono.error(e)))
+                .doOnCancel(() -> this.releaseIfNotAnswered(bucket, answered).subscribe());
+    }
+
+    private Mono<Void> releaseIfNotAnswered(RBucketReactive<String> bucket, AtomicBoolean answered) {
+
+        if (answered.get()) {
+            return Mono.empty();
+        }
+
+        logger.debug("Backend did not answer the request of the idempotency key. Key is released.");
+
+        return bucket.delete().then();
+    }
+
+    private Mono<Void> replay(IdempotentResponse stored, ServerWebExchange exchange) {
+        ServerHttpResponse response = exchange.getResponse();
+
+        logger.debug("Request is answered with the stored response of the idempotency key.");
+
+        response.setStatusCode(HttpStatusCode.valueOf(stored.getStatus()));
+
+        if (stored.getHeaders() != null) {
+            stored.getHeaders().forEach((name, values) -> response.getHeaders().put(name, values));
+        }
+
+        response.getHeaders().set(REPLAYED_HEADER, "true");
+
+        byte[] body = stored.getBody() != null ? stored.getBody() : new byte[0];
+
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+
+    private String storageKey(ServerWebExchange exchange, String idempotencyKey) {
+        GatewaySecurityContext gc = exchange.getAttribute(GATEWAY_SECURITY_CONTEXT_ATTR);
+        String subject = gc != null && gc.getAuthSubject() != null ? gc.getAuthSubject() : "anonymous";
+
+        return this.appShortcode + "+idempotency:" + subject + ":" + idempotencyKey;
+    }
+
+    private static Map<String, List<String>> replayedHeaders(HttpHeaders headers) {
+        Map<String, List<String>> replayed = new LinkedHashMap<>();
+
+        headers.forEach((name, values) -> {
+
+            if (!NOT_REPLAYED_HEADERS.contains(name.toLowerCase())) {
+                replayed.put(name, values);
+            }
+        });
+
+        return replayed;
+    }
+
+    private String write(IdempotentResponse response) {
+
+        try {
+            return this.objectMapper.writeValueAsString(response);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Idempotent response can't be serialized", e);
+        }
+    }
+
+    private IdempotentResponse read(String value) {
+
+        try {
+            return this.objectMapper.readValue(value, IdempotentResponse.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Idempotent response can't be deserialized", e);
+        }
+    }
+
+    public static class Config {
+
+    }
+}
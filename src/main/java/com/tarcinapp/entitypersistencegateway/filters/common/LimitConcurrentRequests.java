@@ -0,0 +1,44 @@
+package com.tarcinapp.entitypersistencegateway.filters.common;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import com.tarcinapp.entitypersistencegateway.resilience.DependencyGuards;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Bounds the concurrent requests of the route groups, reads and writes, with
+ * their bulkheads. A burst of slow writes can't take all the resources away
+ * from the reads, and vice versa. Requests beyond the limit are answered with
+ * 503 Service Unavailable.
+ */
+@Component
+public class LimitConcurrentRequests implements GlobalFilter, Ordered {
+
+    @Autowired
+    private DependencyGuards dependencyGuards;
+
+    public LimitConcurrentRequests() {
+    }
+
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        HttpMethod method = exchange.getRequest().getMethod();
+        String routeGroup = HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) ? "reads" : "writes";
+
+        return this.dependencyGuards.limit(routeGroup, chain.filter(exchange));
+    }
+
+    /**
+     * Runs right after the request deadline is set.
+     */
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE + 1;
+    }
+}
@@ -0,0 +1,50 @@
+package com.tarcinapp.entitypersistencegateway.helpers;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Request decorator serving a body which is already read into memory.
+ *
+ * Request body can only be consumed once. Filters reading the body before the
+ * request is forwarded to the backend wrap the request with this decorator, so
+ * that the subsequent filters and the backend call can read the same body
+ * again.
+ */
+public class CachedBodyRequestDecorator extends ServerHttpRequestDecorator {
+
+    private final byte[] body;
+    private final DataBufferFactory bufferFactory;
+    private final HttpHeaders headers;
+
+    public CachedBodyRequestDecorator(ServerHttpRequest delegate, byte[] body, DataBufferFactory bufferFactory) {
+        super(delegate);
+        this.body = body;
+        this.bufferFactory = bufferFactory;
+
+        this.headers = new HttpHeaders();
+        this.headers.putAll(delegate.getHeaders());
+        this.headers.remove(HttpHeaders.TRANSFER_ENCODING);
+        this.headers.setContentLength(body.length);
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return this.headers;
+    }
+
+    @Override
+    public Flux<DataBuffer> getBody() {
+        // a new buffer for each subscriber, as buffers are released once written
+        return Flux.defer(() -> Flux.just(this.bufferFactory.wrap(this.body)));
+    }
+
+    public byte[] getCachedBody() {
+        return this.body;
+    }
+}
@@ -0,0 +1,415 @@
+package com.tarcinapp.entitypersistencegateway.helpers;
+
+import java.io.IOException;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+/**
+ * Calculates a SHA-256 digest of a JSON document which does not depend on the
+ * whitespace or on the order of the keys in the objects. Two payloads which
+ * are semantically the same JSON have the same digest.
+ *
+ * The document is parsed with Jackson's non-blocking parser, thus it can be
+ * hashed chunk by chunk as the request body arrives, without materializing it
+ * as a String. The digest is built bottom-up: each scalar is hashed with its
+ * type, an array hashes the digests of its items in order, and an object
+ * hashes the digests of its fields sorted by the field name. Only the digests
+ * of the fields of the currently open objects are kept in memory.
+ *
+ * Tokens are hashed without allocating: strings and numbers are read from the
+ * parser's character buffer and encoded to UTF-8 into a reused scratch
+ * buffer, digests are written into reused arrays, and the frames of the
+ * closed objects and arrays are pooled. Field names are canonicalized by the
+ * parser. Decimal numbers are the exception, they are normalized through a
+ * BigDecimal. The parser, the chunk and the frames are allocated once per
+ * document.
+ *
+ * An instance hashes a single document and is not thread-safe.
+ */
+public class CanonicalJsonHasher {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final int DIGEST_LENGTH = 32;
+
+    private static final byte TAG_NULL = 'z';
+    private static final byte TAG_TRUE = 't';
+    private static final byte TAG_FALSE = 'f';
+    private static final byte TAG_NUMBER = 'n';
+    private static final byte TAG_STRING = 's';
+    private static final byte TAG_ARRAY = 'a';
+    private static final byte TAG_OBJECT = 'o';
+    private static final byte TAG_FIELD = 'k';
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private final ArrayDeque<Frame> framePool = new ArrayDeque<>();
+    private final MessageDigest scalarDigest;
+
+    // digest of the last value, copied into its parent before the next value is hashed
+    private final byte[] valueDigest = new byte[DIGEST_LENGTH];
+
+    // UTF-8 encoding of the current string, number or field name
+    private byte[] text = new byte[256];
+    private char[] decimal = new char[64];
+
+    private byte[] chunk;
+    private byte[] rootDigest;
+
+    public CanonicalJsonHasher() throws IOException {
+        this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder) this.parser.getNonBlockingInputFeeder();
+        this.scalarDigest = newDigest();
+    }
+
+    /**
+     * Hashes the readable bytes of the buffer. Read position of the buffer is
+     * left untouched, so the buffer can still be forwarded.
+     *
+     * @param buffer
+     * @throws IOException if the content is not a valid JSON
+     */
+    public void update(DataBuffer buffer) throws IOException {
+        int readPosition = buffer.readPosition();
+
+        if (this.chunk == null) {
+            this.chunk = new byte[CHUNK_SIZE];
+        }
+
+        try {
+
+            while (buffer.readableByteCount() > 0) {
+                int length = Math.min(this.chunk.length, buffer.readableByteCount());
+                buffer.read(this.chunk, 0, length);
+
+                // parser keeps a reference to the chunk, it must be consumed before the next read
+                this.feeder.feedInput(this.chunk, 0, length);
+                this.consumeTokens();
+            }
+        } finally {
+            buffer.readPosition(readPosition);
+        }
+    }
+
+    /**
+     * Hashes the given bytes.
+     *
+     * @param bytes
+     * @throws IOException if the content is not a valid JSON
+     */
+    public void update(byte[] bytes) throws IOException {
+        this.feeder.feedInput(bytes, 0, bytes.length);
+        this.consumeTokens();
+    }
+
+    /**
+     * Completes the hashing and returns the digest of the document.
+     *
+     * @return
+     * @throws IOException if the document is empty or incomplete
+     */
+    public byte[] digest() throws IOException {
+
+        if (this.rootDigest == null) {
+            this.feeder.endOfInput();
+            this.consumeTokens();
+        }
+
+        if (this.rootDigest == null) {
+            throw new JsonParseException(this.parser, "JSON document is empty or incomplete");
+        }
+
+        return this.rootDigest;
+    }
+
+    /**
+     * Completes the hashing and returns the digest of the document as a lower
+     * case hex string.
+     *
+     * @return
+     * @throws IOException if the document is empty or incomplete
+     */
+    public String hexDigest() throws IOException {
+        return toHex(this.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            hex[i * 2] = HEX_DIGITS[b >>> 4];
+            hex[i * 2 + 1] = HEX_DIGITS[b & 0x0F];
+        }
+
+        return new String(hex);
+    }
+
+    private void consumeTokens() throws IOException {
+        JsonToken token;
+
+        while ((token = this.parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+
+            switch (token) {
+                case START_OBJECT:
+                    this.frames.push(this.borrowFrame(true));
+                    break;
+                case START_ARRAY:
+                    this.frames.push(this.borrowFrame(false));
+                    break;
+                case FIELD_NAME:
+                    this.frames.peek().fieldName = this.parser.getCurrentName();
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    Frame frame = this.frames.pop();
+                    this.finish(frame);
+                    this.returnFrame(frame);
+                    this.onValue();
+                    break;
+                case VALUE_STRING:
+                    this.scalar(TAG_STRING, this.encodeText());
+                    break;
+                case VALUE_NUMBER_INT:
+                    this.scalar(TAG_NUMBER, this.encodeText());
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    // 1.50 and 1.5 are the same number
+                    this.scalar(TAG_NUMBER,
+                            this.encode(this.parser.getDecimalValue().stripTrailingZeros().toPlainString()));
+                    break;
+                case VALUE_TRUE:
+                    this.scalar(TAG_TRUE, 0);
+                    break;
+                case VALUE_FALSE:
+                    this.scalar(TAG_FALSE, 0);
+                    break;
+                case VALUE_NULL:
+                    this.scalar(TAG_NULL, 0);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void onValue() {
+        Frame parent = this.frames.peek();
+
+        if (parent == null) {
+            this.rootDigest = this.valueDigest.clone();
+            return;
+        }
+
+        parent.add(this.valueDigest);
+    }
+
+    /**
+     * Hashes the tag and the first length bytes of the text scratch buffer.
+     */
+    private void scalar(byte tag, int length) {
+        this.scalarDigest.update(tag);
+
+        if (length > 0) {
+            this.scalarDigest.update(this.text, 0, length);
+        }
+
+        digestInto(this.scalarDigest, this.valueDigest);
+        this.onValue();
+    }
+
+    private void finish(Frame frame) {
+
+        if (frame.object) {
+            frame.digest.update(TAG_OBJECT);
+
+            for (int i = 0; i < frame.fieldCount; i++) {
+                int field = frame.order[i];
+
+                frame.digest.update(TAG_FIELD);
+                frame.digest.update(this.text, 0, this.encode(frame.fieldNames[field]));
+                frame.digest.update(frame.fieldDigests, field * DIGEST_LENGTH, DIGEST_LENGTH);
+            }
+        }
+
+        digestInto(frame.digest, this.valueDigest);
+    }
+
+    private int encodeText() throws IOException {
+        return this.encode(this.parser.getTextCharacters(), this.parser.getTextOffset(), this.parser.getTextLength());
+    }
+
+    private int encode(String value) {
+
+        if (this.decimal.length < value.length()) {
+            this.decimal = new char[value.length()];
+        }
+
+        value.getChars(0, value.length(), this.decimal, 0);
+
+        return this.encode(this.decimal, 0, value.length());
+    }
+
+    /**
+     * Encodes the characters to UTF-8 into the text scratch buffer, the same as
+     * String.getBytes does, including '?' for unpaired surrogates.
+     *
+     * @return number of bytes written
+     */
+    private int encode(char[] chars, int offset, int length) {
+
+        if (this.text.length < length * 3) {
+            this.text = new byte[length * 3];
+        }
+
+        byte[] bytes = this.text;
+        int position = 0;
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            char c = chars[i];
+
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                    int codePoint = Character.toCodePoint(c, chars[++i]);
+
+                    bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    bytes[position++] = '?';
+                }
+            } else {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        return position;
+    }
+
+    private Frame borrowFrame(boolean object) {
+        Frame frame = this.framePool.poll();
+
+        if (frame == null) {
+            frame = new Frame();
+        }
+
+        frame.open(object);
+
+        return frame;
+    }
+
+    private void returnFrame(Frame frame) {
+        Arrays.fill(frame.fieldNames, 0, frame.fieldCount, null);
+        frame.fieldCount = 0;
+        frame.fieldName = null;
+        this.framePool.push(frame);
+    }
+
+    private static void digestInto(MessageDigest digest, byte[] target) {
+
+        try {
+            digest.digest(target, 0, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException("SHA-256 digest can't be written", e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * An open object or array. Array items are hashed as they arrive, object
+     * fields are kept until the object is closed, as they need to be sorted.
+     * Fields are kept in arrival order, with their order sorted by the field
+     * name maintained as they are added. Equal names keep their arrival order.
+     */
+    private static class Frame {
+
+        private final MessageDigest digest = newDigest();
+        private boolean object;
+        private String fieldName;
+
+        private String[] fieldNames = new String[8];
+        private byte[] fieldDigests = new byte[8 * DIGEST_LENGTH];
+        private int[] order = new int[8];
+        private int fieldCount;
+
+        void open(boolean object) {
+            this.object = object;
+
+            if (!object) {
+                this.digest.update(TAG_ARRAY);
+            }
+        }
+
+        void add(byte[] valueDigest) {
+
+            if (!this.object) {
+                this.digest.update(valueDigest);
+                return;
+            }
+
+            if (this.fieldCount == this.fieldNames.length) {
+                int capacity = this.fieldCount * 2;
+
+                this.fieldNames = Arrays.copyOf(this.fieldNames, capacity);
+                this.fieldDigests = Arrays.copyOf(this.fieldDigests, capacity * DIGEST_LENGTH);
+                this.order = Arrays.copyOf(this.order, capacity);
+            }
+
+            int field = this.fieldCount++;
+            this.fieldNames[field] = this.fieldName;
+            System.arraycopy(valueDigest, 0, this.fieldDigests, field * DIGEST_LENGTH, DIGEST_LENGTH);
+
+            // binary insertion after the equal names
+            int low = 0;
+            int high = field;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (this.fieldNames[this.order[middle]].compareTo(this.fieldName) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            System.arraycopy(this.order, low, this.order, low + 1, field - low);
+            this.order[low] = field;
+        }
+    }
+}
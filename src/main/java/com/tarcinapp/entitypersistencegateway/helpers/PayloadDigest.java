@@ -0,0 +1,108 @@
+package com.tarcinapp.entitypersistencegateway.helpers;
+
+import java.io.IOException;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reads the request body while hashing it with CanonicalJsonHasher, chunk by
+ * chunk as it arrives.
+ *
+ * The digest is kept in the 'PayloadDigest' exchange attribute and the body is
+ * kept in memory with CachedBodyRequestDecorator. Filters on the same route
+ * needing the digest (HandleIdempotencyKey, AcquireLockForCreation) call
+ * read(), and only the first one reads and hashes the body. The others get the
+ * digest from the attribute.
+ *
+ * Hashing does not need the whole body, but the body still has to be
+ * forwarded to the backend once the filters decide, thus it is copied once
+ * into a byte array. The join itself composes the buffers without copying
+ * them.
+ */
+public class PayloadDigest {
+
+    public static final String PAYLOAD_DIGEST_ATTR = "PayloadDigest";
+
+    private PayloadDigest() {
+    }
+
+    /**
+     * Emits the exchange to continue the chain with, whose body can be read
+     * again. Fails with 400 if the body is not a valid JSON document.
+     *
+     * @param exchange
+     * @return
+     */
+    public static Mono<ServerWebExchange> read(ServerWebExchange exchange) {
+
+        if (exchange.getAttribute(PAYLOAD_DIGEST_ATTR) != null) {
+            return Mono.just(exchange);
+        }
+
+        return Mono.defer(() -> {
+            ServerHttpRequest request = exchange.getRequest();
+            CanonicalJsonHasher payloadHasher;
+
+            try {
+                payloadHasher = new CanonicalJsonHasher();
+            } catch (IOException e) {
+                return Mono.error(e);
+            }
+
+            Flux<DataBuffer> hashedBody = request.getBody()
+                    .doOnNext(dataBuffer -> {
+
+                        try {
+                            payloadHasher.update(dataBuffer);
+                        } catch (IOException e) {
+                            // buffer is not handed to the join yet, it must be released here
+                            DataBufferUtils.release(dataBuffer);
+
+                            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid JSON body", e);
+                        }
+                    });
+
+            return DataBufferUtils.join(hashedBody)
+                    .map(dataBuffer -> {
+                        byte[] bytes = new byte[dataBuffer.readableByteCount()];
+                        dataBuffer.read(bytes);
+                        DataBufferUtils.release(dataBuffer);
+
+                        return bytes;
+                    })
+                    .defaultIfEmpty(new byte[0])
+                    .map(payload -> {
+
+                        try {
+                            exchange.getAttributes().put(PAYLOAD_DIGEST_ATTR, payloadHasher.hexDigest());
+                        } catch (IOException e) {
+                            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid JSON body", e);
+                        }
+
+                        // body is consumed, subsequent filters read it from the memory
+                        return exchange.mutate()
+                                .request(new CachedBodyRequestDecorator(request, payload,
+                                        exchange.getResponse().bufferFactory()))
+                                .build();
+                    });
+        });
+    }
+
+    /**
+     * Returns the digest of the payload, available once read() is completed.
+     *
+     * @param exchange
+     * @return
+     */
+    public static String of(ServerWebExchange exchange) {
+        return exchange.getAttribute(PAYLOAD_DIGEST_ATTR);
+    }
+}
@@ -0,0 +1,173 @@
+package com.tarcinapp.entitypersistencegateway.locks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Node-local table of the locks held by the requests processed on this node.
+ *
+ * RecordLockService checks this table before going to Redis. When a burst of
+ * writes hits the same record on the same node, only the first request goes to
+ * Redis for the distributed lock, the others are rejected without any network
+ * I/O.
+ *
+ * Locks are spread over a fixed number of stripes, each one being a separate
+ * map, so that unrelated records do not contend on the same map. Rejected
+ * acquisitions are counted per stripe in 'gateway.locks.local.contention'
+ * meter. A single hot stripe shows a hot record, while contention spread over
+ * all stripes shows a general write conflict.
+ *
+ * Each entry keeps its acquisition time, and an entry older than the lock
+ * lease is treated as free, the same way the distributed lock expires in
+ * Redis. Thus a lock that is never released, e.g. a lost cancellation, does
+ * not block the record on this node forever.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class LocalLockTable {
+
+    @Value("${app.locks.local.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.locks.local.stripes:64}")
+    private int stripeCount;
+
+    @Value("${app.locks.leaseSeconds:30}")
+    private long leaseSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Stripe[] stripes;
+
+    private int stripeMask;
+
+    private long leaseNanos;
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void initStripes() {
+
+        if (this.stripes != null) {
+            return;
+        }
+
+        // round up to a power of two, so that the stripe can be selected with a mask
+        int size = Integer.highestOneBit(Math.max(1, this.stripeCount - 1)) << 1;
+
+        Stripe[] stripes = new Stripe[size];
+
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe(Counter.builder("gateway.locks.local.contention")
+                    .description("Lock acquisitions rejected by the node-local lock table")
+                    .tag("stripe", String.valueOf(i))
+                    .register(this.meterRegistry));
+        }
+
+        this.stripeMask = size - 1;
+        this.leaseNanos = TimeUnit.SECONDS.toNanos(this.leaseSeconds);
+        this.stripes = stripes;
+
+        Gauge.builder("gateway.locks.local.held", this, LocalLockTable::heldLockCount)
+                .description("Locks currently held by the requests on this node")
+                .register(this.meterRegistry);
+    }
+
+    /**
+     * Takes the lock on this node, if it is not held by another request on this
+     * node. A lock held longer than the lease is taken over.
+     *
+     * @param lockName
+     * @param ownerToken
+     * @return false if the lock is held by another request on this node
+     */
+    public boolean tryAcquire(String lockName, String ownerToken) {
+
+        if (!this.enabled || this.stripes == null) {
+            return true;
+        }
+
+        Stripe stripe = this.stripeOf(lockName);
+        long now = System.nanoTime();
+
+        Holder holder = stripe.owners.compute(lockName,
+                (name, current) -> current == null || current.isExpired(now, this.leaseNanos)
+                        ? new Holder(ownerToken, now)
+                        : current);
+
+        if (!holder.ownerToken.equals(ownerToken)) {
+            stripe.contention.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Releases the lock if it is held by the given owner.
+     *
+     * @param lockName
+     * @param ownerToken
+     */
+    public void release(String lockName, String ownerToken) {
+
+        if (!this.enabled || this.stripes == null) {
+            return;
+        }
+
+        this.stripeOf(lockName).owners.computeIfPresent(lockName,
+                (name, current) -> current.ownerToken.equals(ownerToken) ? null : current);
+    }
+
+    private Stripe stripeOf(String lockName) {
+        int h = lockName.hashCode();
+
+        return this.stripes[(h ^ (h >>> 16)) & this.stripeMask];
+    }
+
+    private double heldLockCount() {
+        long count = 0;
+
+        for (Stripe stripe : this.stripes) {
+            count += stripe.owners.size();
+        }
+
+        return count;
+    }
+
+    private static class Holder {
+
+        private final String ownerToken;
+        private final long acquiredAt;
+
+        Holder(String ownerToken, long acquiredAt) {
+            this.ownerToken = ownerToken;
+            this.acquiredAt = acquiredAt;
+        }
+
+        boolean isExpired(long now, long leaseNanos) {
+            return now - this.acquiredAt > leaseNanos;
+        }
+    }
+
+    private static class Stripe {
+
+        private final ConcurrentHashMap<String, Holder> owners = new ConcurrentHashMap<>();
+        private final Counter contention;
+
+        Stripe(Counter contention) {
+            this.contention = contention;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.tarcinapp.entitypersistencegateway.locks;
+
+/**
+ * A lock acquired by RecordLockService. Owner token is unique to the
+ * acquisition, thus only the request holding this instance can release the
+ * lock.
+ */
+public class RecordLock {
+
+    private final String name;
+    private final String ownerToken;
+
+    RecordLock(String name, String ownerToken) {
+        this.name = name;
+        this.ownerToken = ownerToken;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOwnerToken() {
+        return ownerToken;
+    }
+}
@@ -0,0 +1,172 @@
+package com.tarcinapp.entitypersistencegateway.locks;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.redisson.api.RScript.Mode;
+import org.redisson.api.RScript.ReturnType;
+import org.redisson.api.RScriptReactive;
+import org.redisson.api.RedissonReactiveClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.tarcinapp.entitypersistencegateway.resilience.DependencyGuards;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Distributed locks used to prevent concurrent writes on the same record, or
+ * concurrent creation of the same record.
+ *
+ * A lock is acquired with a single atomic script (SET NX PX), which either
+ * takes the lock or rejects it, and released with a single compare-and-delete
+ * script. Each acquisition has its own owner token, so a lock can only be
+ * released by the request which acquired it. The lease time guarantees that a
+ * lock is not held forever if the gateway node dies while holding it.
+ *
+ * Locks held on this node are tracked in the LocalLockTable as well, thus
+ * requests contending on the same node are rejected without a Redis round
+ * trip. Only the first local holder escalates to the distributed lock.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class RecordLockService {
+
+    private static final String ACQUIRE_SCRIPT = "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then "
+            + "return 1 "
+            + "end "
+            + "return 0";
+
+    private static final String RELEASE_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then "
+            + "return redis.call('del', KEYS[1]) "
+            + "end "
+            + "return 0";
+
+    @Value("${app.locks.leaseSeconds:30}")
+    private long leaseSeconds;
+
+    @Autowired
+    private RedissonReactiveClient redissonReactiveClient;
+
+    @Autowired
+    private LocalLockTable localLockTable;
+
+    @Autowired
+    private DependencyGuards dependencyGuards;
+
+    private RScriptReactive script;
+
+    private Logger logger = LogManager.getLogger(RecordLockService.class);
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void initScript() {
+        this.script = this.redissonReactiveClient.getScript(StringCodec.INSTANCE);
+    }
+
+    /**
+     * Tries to acquire the lock. Emits the acquired lock, or fails with 423 Locked
+     * if the lock is held by another request.
+     *
+     * @param lockName
+     * @return
+     */
+    public Mono<RecordLock> acquire(String lockName) {
+
+        return Mono.defer(() -> {
+            String ownerToken = UUID.randomUUID().toString();
+
+            // another request on this node holds the lock, no need to ask Redis
+            if (!this.localLockTable.tryAcquire(lockName, ownerToken)) {
+                logger.debug("Lock is held by another request on this node: " + lockName);
+
+                return Mono.error(new ResponseStatusException(HttpStatus.LOCKED,
+                        "Resource already locked. Lock: " + lockName));
+            }
+
+            String leaseMillis = String.valueOf(TimeUnit.SECONDS.toMillis(this.leaseSeconds));
+            RecordLock lock = new RecordLock(lockName, ownerToken);
+
+            return this.dependencyGuards.guard("redis", this.script
+                    .<Long>eval(Mode.READ_WRITE, ACQUIRE_SCRIPT, ReturnType.INTEGER,
+                            Collections.singletonList(lockName), ownerToken, leaseMillis))
+                    .map(acquired -> {
+
+                        if (acquired != 1L) {
+                            throw new ResponseStatusException(HttpStatus.LOCKED,
+                                    "Resource already locked. Lock: " + lockName);
+                        }
+
+                        logger.debug("Lock acquired: " + lockName);
+
+                        return lock;
+                    })
+                    .doOnError(e -> this.localLockTable.release(lockName, ownerToken))
+                    // the script may still take the lock after the cancellation
+                    .doOnCancel(() -> this.release(lock).subscribe());
+        });
+    }
+
+    /**
+     * Releases the lock if it is still owned by the given lock instance. A lock
+     * whose lease is expired and acquired by another request is left untouched.
+     * Only acquisitions go through the dependency guards of Redis, releases are
+     * always sent.
+     *
+     * @param lock
+     * @return
+     */
+    public Mono<Void> release(RecordLock lock) {
+
+        // not guarded, an open circuit or a full bulkhead must not keep a held lock until its lease expires
+        return this.script
+                .<Long>eval(Mode.READ_WRITE, RELEASE_SCRIPT, ReturnType.INTEGER,
+                        Collections.singletonList(lock.getName()), lock.getOwnerToken())
+                .doOnNext(released -> {
+
+                    if (released == 1L) {
+                        logger.debug("Lock released: " + lock.getName());
+                    } else {
+                        logger.warn("Lock " + lock.getName() + " was not owned anymore while releasing it. Lease time may be too short.");
+                    }
+                })
+                .onErrorResume(e -> {
+                    // lock will be freed when its lease expires
+                    logger.error("Lock " + lock.getName() + " can't be released.", e);
+                    return Mono.empty();
+                })
+                // local lock is released last, so that the next local request finds the distributed lock free
+                .doFinally(signalType -> this.localLockTable.release(lock.getName(), lock.getOwnerToken()))
+                .then();
+    }
+
+    /**
+     * Runs the action while holding the lock. Lock is released when the action
+     * completes, fails or is cancelled.
+     *
+     * @param <T>
+     * @param lockName
+     * @param action
+     * @return
+     */
+    public <T> Mono<T> withLock(String lockName, Function<RecordLock, Mono<T>> action) {
+
+        return Mono.usingWhen(
+                this.acquire(lockName),
+                action,
+                this::release,
+                (lock, e) -> this.release(lock),
+                this::release);
+    }
+}
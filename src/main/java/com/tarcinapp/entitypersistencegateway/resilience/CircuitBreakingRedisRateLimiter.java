@@ -0,0 +1,76 @@
+package com.tarcinapp.entitypersistencegateway.resilience;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cloud.gateway.filter.ratelimit.RedisRateLimiter;
+import org.springframework.cloud.gateway.support.ConfigurationService;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import reactor.core.publisher.Mono;
+
+/**
+ * Redis rate limiter which stops calling Redis while the circuit breaker of
+ * Redis is open.
+ *
+ * RedisRateLimiter already lets requests pass when Redis fails, but each
+ * request still waits for the failure. This rate limiter reports the outcome
+ * of the rate limiting script to the 'redis' circuit breaker, and allows the
+ * requests without calling Redis while the breaker is open. Failures are
+ * recognized by the remaining tokens header, which RedisRateLimiter sets to -1
+ * when the script fails. Thus the rate limiting headers must be included.
+ *
+ * Replaces the default RedisRateLimiter bean of the gateway.
+ */
+@Component
+public class CircuitBreakingRedisRateLimiter extends RedisRateLimiter {
+
+    @Autowired
+    private DependencyGuards dependencyGuards;
+
+    private Logger logger = LogManager.getLogger(CircuitBreakingRedisRateLimiter.class);
+
+    public CircuitBreakingRedisRateLimiter(ReactiveStringRedisTemplate redisTemplate,
+            @Qualifier(RedisRateLimiter.REDIS_SCRIPT_NAME) RedisScript<List<Long>> script,
+            ConfigurationService configurationService) {
+        super(redisTemplate, script, configurationService);
+    }
+
+    @Override
+    public Mono<Response> isAllowed(String routeId, String id) {
+        CircuitBreaker circuitBreaker = this.dependencyGuards.circuitBreakerOf("redis");
+
+        if (circuitBreaker == null) {
+            return super.isAllowed(routeId, id);
+        }
+
+        if (!circuitBreaker.tryAcquirePermission()) {
+            logger.debug("Redis circuit breaker is open. Request is allowed without rate limiting.");
+
+            return Mono.just(new Response(true, Collections.emptyMap()));
+        }
+
+        long start = System.nanoTime();
+
+        return super.isAllowed(routeId, id)
+                .doOnNext(response -> {
+                    long elapsed = System.nanoTime() - start;
+
+                    if ("-1".equals(response.getHeaders().get(REMAINING_HEADER))) {
+                        circuitBreaker.onError(elapsed, TimeUnit.NANOSECONDS,
+                                new IllegalStateException("Rate limiting script failed"));
+                    } else {
+                        circuitBreaker.onSuccess(elapsed, TimeUnit.NANOSECONDS);
+                    }
+                })
+                .doOnCancel(circuitBreaker::releasePermission);
+    }
+}
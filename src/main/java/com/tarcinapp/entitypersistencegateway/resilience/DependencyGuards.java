@@ -0,0 +1,178 @@
+package com.tarcinapp.entitypersistencegateway.resilience;
+
+import java.time.Duration;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.tarcinapp.entitypersistencegateway.config.ResilienceConfig;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Circuit breakers and bulkheads of the dependencies and the route groups.
+ *
+ * A guarded call first passes the circuit breaker of its dependency, then
+ * takes a permit of the bulkhead bounding the concurrent calls. While a
+ * breaker is open, or a bulkhead is full, calls are rejected immediately with
+ * 503 Service Unavailable instead of waiting for the dependency to time out.
+ *
+ * Breakers count errors and 5xx responses of the dependency, and calls slower
+ * than the slow call duration. 4xx responses and the errors raised by the
+ * gateway itself, such as a held lock or a full bulkhead, are not failures
+ * of the dependency. Calls rejected by the bulkhead are not counted at all.
+ *
+ * States and calls are exposed through the 'resilience4j.circuitbreaker.*'
+ * and 'resilience4j.bulkhead.*' meters, tagged with the name.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class DependencyGuards {
+
+    @Autowired
+    private ResilienceConfig resilienceConfig;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+
+    private BulkheadRegistry bulkheadRegistry;
+
+    private Logger logger = LogManager.getLogger(DependencyGuards.class);
+
+    @EventListener(ContextRefreshedEvent.class)
+    private void initRegistries() {
+
+        if (this.circuitBreakerRegistry != null || !this.resilienceConfig.isEnabled()) {
+            return;
+        }
+
+        this.circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
+        this.bulkheadRegistry = BulkheadRegistry.ofDefaults();
+
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(this.circuitBreakerRegistry).bindTo(this.meterRegistry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(this.bulkheadRegistry).bindTo(this.meterRegistry);
+
+        logger.debug("Circuit breakers and bulkheads are initialized.");
+    }
+
+    /**
+     * Returns the call guarded by the circuit breaker and the bulkhead of the
+     * dependency.
+     *
+     * @param <T>
+     * @param dependency name of the dependency, e.g. opa, backend or redis
+     * @param call
+     * @return
+     */
+    public <T> Mono<T> guard(String dependency, Mono<T> call) {
+
+        if (this.circuitBreakerRegistry == null) {
+            return call;
+        }
+
+        return call
+                .transformDeferred(BulkheadOperator.of(this.bulkheadOf(dependency)))
+                .transformDeferred(CircuitBreakerOperator.of(this.circuitBreakerOf(dependency)))
+                .onErrorMap(DependencyGuards::isRejection, e -> new ResponseStatusException(
+                        HttpStatus.SERVICE_UNAVAILABLE, dependency + " is not available", e));
+    }
+
+    /**
+     * Returns the call bounded by the named bulkhead only.
+     *
+     * @param <T>
+     * @param name name of the bulkhead, e.g. reads or writes
+     * @param call
+     * @return
+     */
+    public <T> Mono<T> limit(String name, Mono<T> call) {
+
+        if (this.bulkheadRegistry == null) {
+            return call;
+        }
+
+        return call
+                .transformDeferred(BulkheadOperator.of(this.bulkheadOf(name)))
+                .onErrorMap(BulkheadFullException.class, e -> new ResponseStatusException(
+                        HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent " + name, e));
+    }
+
+    /**
+     * Returns the circuit breaker of the dependency, or null if circuit breakers
+     * are disabled.
+     *
+     * @param dependency
+     * @return
+     */
+    public CircuitBreaker circuitBreakerOf(String dependency) {
+
+        if (this.circuitBreakerRegistry == null) {
+            return null;
+        }
+
+        ResilienceConfig.CircuitBreaker config = this.resilienceConfig.getCircuitBreaker(dependency);
+
+        return this.circuitBreakerRegistry.circuitBreaker(dependency, () -> CircuitBreakerConfig.custom()
+                .failureRateThreshold(config.getFailureRateThreshold())
+                .slowCallRateThreshold(config.getSlowCallRateThreshold())
+                .slowCallDurationThreshold(Duration.ofMillis(config.getSlowCallDurationMillis()))
+                .slidingWindowSize(config.getSlidingWindowSize())
+                .minimumNumberOfCalls(config.getMinimumNumberOfCalls())
+                .waitDurationInOpenState(Duration.ofSeconds(config.getWaitInOpenStateSeconds()))
+                .permittedNumberOfCallsInHalfOpenState(config.getPermittedCallsInHalfOpenState())
+                .recordException(DependencyGuards::isFailure)
+                // a full bulkhead is raised by the gateway, it must neither open the breaker nor close it
+                .ignoreException(DependencyGuards::isRejection)
+                .build());
+    }
+
+    private Bulkhead bulkheadOf(String name) {
+        ResilienceConfig.Bulkhead config = this.resilienceConfig.getBulkhead(name);
+
+        return this.bulkheadRegistry.bulkhead(name, () -> BulkheadConfig.custom()
+                .maxConcurrentCalls(config.getMaxConcurrentCalls())
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+    }
+
+    private static boolean isFailure(Throwable e) {
+
+        if (isRejection(e)) {
+            return false;
+        }
+
+        if (e instanceof WebClientResponseException) {
+            return ((WebClientResponseException) e).getStatusCode().is5xxServerError();
+        }
+
+        return !(e instanceof ResponseStatusException);
+    }
+
+    private static boolean isRejection(Throwable e) {
+        return e instanceof CallNotPermittedException || e instanceof BulkheadFullException;
+    }
+}
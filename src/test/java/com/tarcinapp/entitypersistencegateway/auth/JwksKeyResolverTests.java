@@ -0,0 +1,178 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import reactor.core.publisher.Mono;
+
+class JwksKeyResolverTests {
+
+	private static final KeyPair FIRST_KEY = Jwts.SIG.RS256.keyPair().build();
+
+	private static final KeyPair SECOND_KEY = Jwts.SIG.RS256.keyPair().build();
+
+	private JwksKeyResolver resolver;
+
+	private JwtParser parser;
+
+	@BeforeEach
+	void setUp() {
+		resolver = new JwksKeyResolver();
+		ReflectionTestUtils.setField(resolver, "unknownKidMinIntervalSeconds", 60L);
+		ReflectionTestUtils.setField(resolver, "fetchTimeoutSeconds", 5L);
+
+		parser = Jwts.parser().keyLocator(resolver).build();
+	}
+
+	private static String token(String kid, KeyPair keyPair) {
+		return Jwts.builder()
+				.header().keyId(kid).and()
+				.subject("user-1")
+				.signWith(keyPair.getPrivate(), Jwts.SIG.RS256)
+				.compact();
+	}
+
+	private static String jwk(String kid, KeyPair keyPair) {
+		RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+		return "{\"kty\":\"RSA\",\"use\":\"sig\",\"alg\":\"RS256\",\"kid\":\"" + kid + "\""
+				+ ",\"n\":\"" + encoder.encodeToString(publicKey.getModulus().toByteArray()) + "\""
+				+ ",\"e\":\"" + encoder.encodeToString(publicKey.getPublicExponent().toByteArray()) + "\"}";
+	}
+
+	private static String jwks(String... jwks) {
+		return "{\"keys\":[" + String.join(",", jwks) + "]}";
+	}
+
+	private String subjectOf(String token) {
+		resolver.ensureKey(token).block(Duration.ofSeconds(5));
+
+		return parser.parseSignedClaims(token).getPayload().getSubject();
+	}
+
+	@Test
+	void keysAreLoadedFromALocalFile(@TempDir Path directory) throws Exception {
+		Path file = directory.resolve("jwks.json");
+		Files.writeString(file, jwks(jwk("key-1", FIRST_KEY)), StandardCharsets.UTF_8);
+
+		resolver.setJwksSource(JwksSource.fromUri(file.toUri().toString()));
+
+		assertEquals("user-1", subjectOf(token("key-1", FIRST_KEY)));
+	}
+
+	@Test
+	void keysAreLoadedFromAStubHttpServer() throws Exception {
+		byte[] document = jwks(jwk("key-1", FIRST_KEY)).getBytes(StandardCharsets.UTF_8);
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/certs", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, document.length);
+			exchange.getResponseBody().write(document);
+			exchange.close();
+		});
+		server.start();
+
+		try {
+			resolver.setJwksSource(
+					JwksSource.fromUri("http://localhost:" + server.getAddress().getPort() + "/certs"));
+
+			assertEquals("user-1", subjectOf(token("key-1", FIRST_KEY)));
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	void concurrentUnknownKidsShareASingleRefresh() {
+		AtomicInteger fetches = new AtomicInteger();
+
+		resolver.setJwksSource(() -> Mono.delay(Duration.ofMillis(100))
+				.map(tick -> {
+					fetches.incrementAndGet();
+					return jwks(jwk("key-1", FIRST_KEY));
+				}));
+
+		String token = token("key-1", FIRST_KEY);
+		List<Mono<Void>> waiting = new ArrayList<>();
+
+		for (int i = 0; i < 10; i++) {
+			waiting.add(resolver.ensureKey(token));
+		}
+
+		Mono.when(waiting).block(Duration.ofSeconds(5));
+
+		assertEquals(1, fetches.get());
+		assertEquals("user-1", parser.parseSignedClaims(token).getPayload().getSubject());
+	}
+
+	@Test
+	void unknownKidRefreshesAreThrottled() {
+		AtomicInteger fetches = new AtomicInteger();
+
+		resolver.setJwksSource(() -> Mono.fromCallable(() -> {
+			fetches.incrementAndGet();
+			return jwks(jwk("key-1", FIRST_KEY));
+		}));
+
+		// first unknown kid on a fresh start always refreshes
+		resolver.ensureKey(token("random-1", FIRST_KEY)).block(Duration.ofSeconds(5));
+		resolver.ensureKey(token("random-2", FIRST_KEY)).block(Duration.ofSeconds(5));
+		resolver.ensureKey(token("random-3", FIRST_KEY)).block(Duration.ofSeconds(5));
+
+		assertEquals(1, fetches.get());
+		assertThrows(UnknownKeyIdException.class, () -> parser.parseSignedClaims(token("random-1", FIRST_KEY)));
+	}
+
+	@Test
+	void rotatedKeyIsLoadedAndRemovedKeyIsRejected() {
+		AtomicReference<String> published = new AtomicReference<>(jwks(jwk("key-1", FIRST_KEY)));
+		ReflectionTestUtils.setField(resolver, "unknownKidMinIntervalSeconds", 0L);
+
+		resolver.setJwksSource(() -> Mono.fromCallable(published::get));
+
+		String firstToken = token("key-1", FIRST_KEY);
+		assertEquals("user-1", subjectOf(firstToken));
+		assertTrue(resolver.hasKey("key-1"));
+
+		// identity provider rotates to a new key and drops the old one
+		published.set(jwks(jwk("key-2", SECOND_KEY)));
+
+		assertEquals("user-1", subjectOf(token("key-2", SECOND_KEY)));
+		assertThrows(UnknownKeyIdException.class, () -> parser.parseSignedClaims(firstToken));
+
+		// cached tokens verified with the removed key are not accepted anymore
+		assertFalse(resolver.hasKey("key-1"));
+		assertTrue(resolver.hasKey("key-2"));
+	}
+
+	@Test
+	void tokensWithoutKidAreNotCheckedAgainstTheKeySet() {
+		assertTrue(resolver.hasKey(null));
+	}
+}
@@ -0,0 +1,61 @@
+package com.tarcinapp.entitypersistencegateway.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.tarcinapp.entitypersistencegateway.auth.AuthenticationRejectedException.RejectionReason;
+
+import io.jsonwebtoken.security.InvalidKeyException;
+import io.jsonwebtoken.security.SignatureException;
+import io.jsonwebtoken.security.UnsupportedKeyException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RejectedTokenCacheTests {
+
+	private RejectedTokenCache rejectedTokenCache() {
+		RejectedTokenCache cache = new RejectedTokenCache();
+		ReflectionTestUtils.setField(cache, "enabled", true);
+		ReflectionTestUtils.setField(cache, "maxSize", 100L);
+		ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+		ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.invokeMethod(cache, "initCache");
+
+		return cache;
+	}
+
+	@Test
+	void onlyAMissingKidIsAnUnknownKey() {
+		assertEquals(RejectionReason.UNKNOWN_KEY,
+				RejectedTokenCache.reasonOf(new UnknownKeyIdException("Unknown key id: key-9")));
+
+		// the key is known, the token can't be verified with it
+		assertEquals(RejectionReason.INVALID_SIGNATURE,
+				RejectedTokenCache.reasonOf(new UnsupportedKeyException("Key key-1 can't be used with algorithm HS256")));
+		assertEquals(RejectionReason.INVALID_SIGNATURE,
+				RejectedTokenCache.reasonOf(new InvalidKeyException("Key is too weak for the algorithm")));
+		assertEquals(RejectionReason.INVALID_SIGNATURE,
+				RejectedTokenCache.reasonOf(new SignatureException("Signature does not match")));
+	}
+
+	@Test
+	void tokenWithMismatchingAlgIsCachedAndUnknownKidIsNot() {
+		RejectedTokenCache cache = rejectedTokenCache();
+
+		RejectionReason mismatch = RejectedTokenCache.reasonOf(new UnsupportedKeyException("alg mismatch"));
+		RejectionReason unknownKid = RejectedTokenCache.reasonOf(new UnknownKeyIdException("Unknown key id"));
+
+		assertTrue(mismatch.isCacheable());
+		assertFalse(unknownKid.isCacheable());
+
+		cache.reject("digest-of-mismatching-token", mismatch);
+		cache.reject("digest-of-unknown-kid-token", unknownKid);
+
+		assertEquals(RejectionReason.INVALID_SIGNATURE, cache.get("digest-of-mismatching-token"));
+		assertNull(cache.get("digest-of-unknown-kid-token"));
+	}
+}
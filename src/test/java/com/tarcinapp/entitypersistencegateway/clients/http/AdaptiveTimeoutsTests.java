@@ -0,0 +1,89 @@
+package com.tarcinapp.entitypersistencegateway.clients.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.tarcinapp.entitypersistencegateway.config.AdaptiveTimeoutConfig;
+import com.tarcinapp.entitypersistencegateway.config.HttpClientPoolConfig;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+class AdaptiveTimeoutsTests {
+
+	private AdaptiveTimeouts adaptiveTimeouts() {
+		AdaptiveTimeoutConfig config = new AdaptiveTimeoutConfig();
+		config.setEnabled(true);
+		config.setPercentile(0.99);
+		config.setFactor(2);
+		config.setMinMillis(10);
+		config.setMaxMillis(5000);
+		config.setMinSamples(5);
+
+		AdaptiveTimeouts adaptiveTimeouts = new AdaptiveTimeouts();
+		ReflectionTestUtils.setField(adaptiveTimeouts, "adaptiveTimeoutConfig", config);
+		ReflectionTestUtils.setField(adaptiveTimeouts, "httpClientPoolConfig", new HttpClientPoolConfig());
+		ReflectionTestUtils.setField(adaptiveTimeouts, "meterRegistry", new SimpleMeterRegistry());
+
+		return adaptiveTimeouts;
+	}
+
+	private Duration fastCall(AdaptiveTimeouts adaptiveTimeouts) {
+		return adaptiveTimeouts.call("opa", "policy",
+				timeout -> Mono.delay(Duration.ofMillis(2)).thenReturn(timeout))
+				.block();
+	}
+
+	private void timedOutCall(AdaptiveTimeouts adaptiveTimeouts) {
+		Mono<Duration> call = adaptiveTimeouts.call("opa", "policy",
+				timeout -> Mono.delay(timeout.plusMillis(5)).then(Mono.<Duration>error(new TimeoutException())));
+
+		assertThrows(RuntimeException.class, () -> call.block());
+	}
+
+	@Test
+	void usesPoolTimeoutUntilEnoughSamples() {
+		AdaptiveTimeouts adaptiveTimeouts = adaptiveTimeouts();
+
+		assertEquals(Duration.ofMillis(2000), fastCall(adaptiveTimeouts));
+	}
+
+	@Test
+	void fastCallsAreClampedToMinTimeout() {
+		AdaptiveTimeouts adaptiveTimeouts = adaptiveTimeouts();
+
+		for (int i = 0; i < 5; i++) {
+			fastCall(adaptiveTimeouts);
+		}
+
+		assertEquals(Duration.ofMillis(10), fastCall(adaptiveTimeouts));
+	}
+
+	@Test
+	void timedOutCallsRaiseTheTimeout() throws InterruptedException {
+		AdaptiveTimeouts adaptiveTimeouts = adaptiveTimeouts();
+
+		for (int i = 0; i < 5; i++) {
+			fastCall(adaptiveTimeouts);
+		}
+
+		assertEquals(Duration.ofMillis(10), fastCall(adaptiveTimeouts));
+
+		// dependency slows down, every call times out at the min timeout
+		for (int i = 0; i < 20; i++) {
+			timedOutCall(adaptiveTimeouts);
+		}
+
+		// percentiles are read at most once a second
+		Thread.sleep(1100);
+
+		assertTrue(fastCall(adaptiveTimeouts).compareTo(Duration.ofMillis(10)) > 0);
+	}
+}
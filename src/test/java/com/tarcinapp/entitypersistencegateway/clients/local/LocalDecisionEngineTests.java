@@ -0,0 +1,162 @@
+package com.tarcinapp.entitypersistencegateway.clients.local;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.tarcinapp.entitypersistencegateway.GatewaySecurityContext;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyResult;
+import com.tarcinapp.entitypersistencegateway.clients.local.LocalDecisionEngine.CompiledRule;
+import com.tarcinapp.entitypersistencegateway.clients.opa.OpaClient;
+import com.tarcinapp.entitypersistencegateway.config.LocalPolicyConfig;
+import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+class LocalDecisionEngineTests {
+
+	private static PolicyData inquiry(String subject, List<String> roles, List<String> groups, AnyRecordBase original) {
+		GatewaySecurityContext securityContext = new GatewaySecurityContext();
+		securityContext.setAuthSubject(subject);
+		securityContext.setRoles(new ArrayList<>(roles));
+		securityContext.setGroups(new ArrayList<>(groups));
+
+		PolicyData data = new PolicyData();
+		data.setPolicyName("/policies/auth/routes/updateEntityById/policy");
+		data.setSecurityContext(securityContext);
+		data.setOriginalRecord(original);
+
+		return data;
+	}
+
+	private static AnyRecordBase record(List<String> ownerUsers, List<String> ownerGroups) {
+		AnyRecordBase record = new AnyRecordBase();
+		record.set_id("record-1");
+		record.set_ownerUsers(ownerUsers);
+		record.set_ownerGroups(ownerGroups);
+
+		return record;
+	}
+
+	@Test
+	void ruleAllowsAUserWithOneOfItsRoles() {
+		CompiledRule rule = new CompiledRule(Set.of("tarcinapp.admin"), false, false);
+
+		PolicyResult result = rule.evaluate(inquiry("user-1", List.of("tarcinapp.member", "tarcinapp.admin"),
+				List.of(), null));
+
+		assertNotNull(result);
+		assertTrue(result.isAllow());
+	}
+
+	@Test
+	void ruleIsNotConclusiveWithoutAMatchingRole() {
+		CompiledRule rule = new CompiledRule(Set.of("tarcinapp.admin"), false, false);
+
+		assertNull(rule.evaluate(inquiry("user-1", List.of("tarcinapp.member"), List.of(), null)));
+	}
+
+	@Test
+	void ruleAllowsAnOwnerUser() {
+		CompiledRule rule = new CompiledRule(Set.of(), true, false);
+		AnyRecordBase original = record(List.of("user-2", "user-1"), List.of());
+
+		PolicyResult result = rule.evaluate(inquiry("user-1", List.of(), List.of(), original));
+
+		assertNotNull(result);
+		assertTrue(result.isAllow());
+		assertNull(rule.evaluate(inquiry("user-3", List.of(), List.of(), original)));
+	}
+
+	@Test
+	void ownerUsersAreIgnoredUnlessAllowed() {
+		CompiledRule rule = new CompiledRule(Set.of(), false, true);
+
+		assertNull(rule.evaluate(inquiry("user-1", List.of(), List.of(), record(List.of("user-1"), List.of()))));
+	}
+
+	@Test
+	void ruleAllowsAMemberOfAnOwnerGroup() {
+		CompiledRule rule = new CompiledRule(Set.of(), false, true);
+		AnyRecordBase original = record(List.of(), List.of("editors"));
+
+		PolicyResult result = rule.evaluate(inquiry("user-1", List.of(), List.of("readers", "editors"), original));
+
+		assertNotNull(result);
+		assertTrue(result.isAllow());
+		assertNull(rule.evaluate(inquiry("user-1", List.of(), List.of("readers"), original)));
+	}
+
+	@Test
+	void ownershipIsNotConclusiveWithoutTheOriginalRecord() {
+		CompiledRule rule = new CompiledRule(Set.of(), true, true);
+
+		assertNull(rule.evaluate(inquiry("user-1", List.of(), List.of("editors"), null)));
+	}
+
+	@Test
+	void anonymousRequestIsNotConclusive() {
+		CompiledRule rule = new CompiledRule(Set.of("tarcinapp.admin"), true, true);
+		PolicyData data = new PolicyData();
+		data.setOriginalRecord(record(List.of("user-1"), List.of()));
+
+		assertNull(rule.evaluate(data));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void policiesWithALocalRuleAreLeftOutOfTheBundle() {
+		LocalPolicyConfig.Rule adminRule = new LocalPolicyConfig.Rule();
+		adminRule.setPolicyName("/policies/auth/routes/updateEntityById/policy");
+		adminRule.setRoles(List.of("admin"));
+
+		LocalPolicyConfig config = new LocalPolicyConfig();
+		config.setEnabled(true);
+		config.setRules(List.of(adminRule));
+
+		OpaClient opaClient = mock(OpaClient.class);
+		when(opaClient.executePolicies(any(), anyList())).thenReturn(Mono.just(Map.of()));
+
+		LocalDecisionEngine engine = new LocalDecisionEngine();
+		ReflectionTestUtils.setField(engine, "opaClient", opaClient);
+		ReflectionTestUtils.setField(engine, "localPolicyConfig", config);
+		ReflectionTestUtils.setField(engine, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(engine, "appShortcode", "tarcinapp");
+		ReflectionTestUtils.invokeMethod(engine, "compileRules");
+
+		PolicyData data = inquiry("user-1", List.of(), List.of(), null);
+
+		engine.executePolicies(data, List.of("/policies/auth/routes/updateEntityById/policy",
+				"/policies/fields/entities/policy")).block();
+
+		ArgumentCaptor<List<String>> sent = ArgumentCaptor.forClass(List.class);
+		verify(opaClient).executePolicies(any(), sent.capture());
+		assertEquals(List.of("/policies/fields/entities/policy"), sent.getValue());
+
+		// a bundle of locally decidable policies does not reach OPA
+		OpaClient unusedOpaClient = mock(OpaClient.class);
+		ReflectionTestUtils.setField(engine, "opaClient", unusedOpaClient);
+
+		assertEquals(Map.of(), engine.executePolicies(data,
+				List.of("/policies/auth/routes/updateEntityById/policy")).block());
+		verify(unusedOpaClient, never()).executePolicies(any(), anyList());
+	}
+}
@@ -0,0 +1,103 @@
+package com.tarcinapp.entitypersistencegateway.clients.opa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.config.ClaimsInputConfig;
+import com.tarcinapp.entitypersistencegateway.config.InputProjectionConfig;
+import com.tarcinapp.entitypersistencegateway.config.StaleDecisionConfig;
+import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+class DecisionCacheTests {
+
+	private DecisionCache decisionCache;
+
+	@BeforeEach
+	void setUp() {
+		PolicyInputWriter writer = new PolicyInputWriter();
+		ReflectionTestUtils.setField(writer, "claimsInputConfig", new ClaimsInputConfig());
+		ReflectionTestUtils.setField(writer, "inputProjectionConfig", new InputProjectionConfig());
+
+		decisionCache = new DecisionCache();
+		ReflectionTestUtils.setField(decisionCache, "enabled", true);
+		ReflectionTestUtils.setField(decisionCache, "maxSize", 100L);
+		ReflectionTestUtils.setField(decisionCache, "ttlSeconds", 60L);
+		ReflectionTestUtils.setField(decisionCache, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(decisionCache, "policyInputWriter", writer);
+		ReflectionTestUtils.setField(decisionCache, "staleDecisionConfig", new StaleDecisionConfig());
+		ReflectionTestUtils.invokeMethod(decisionCache, "initCache");
+	}
+
+	private static PolicyData data(String recordId, String token) {
+		AnyRecordBase original = new AnyRecordBase();
+		original.set_id(recordId);
+
+		PolicyData data = new PolicyData();
+		data.setPolicyName("/policies/auth/routes/findEntityById/policy");
+		data.setOriginalRecord(original);
+		data.setEncodedJwt(token);
+
+		return data;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Set<String>> keysByRecord() {
+		return (Map<String, Set<String>>) ReflectionTestUtils.getField(decisionCache, "keysByRecord");
+	}
+
+	@Test
+	void cachedDecisionIsIndexedAndDroppedByInvalidation() {
+		AtomicInteger evaluations = new AtomicInteger();
+
+		for (int i = 0; i < 2; i++) {
+			Boolean allowed = decisionCache.get(data("record-1", "token-1"), Boolean.class, () -> {
+				evaluations.incrementAndGet();
+				return Mono.just(true);
+			}).block();
+
+			assertTrue(allowed);
+		}
+
+		assertEquals(1, evaluations.get());
+		assertEquals(1, keysByRecord().get("record-1").size());
+
+		decisionCache.onRecordInvalidated("record-1", "book");
+
+		assertNull(keysByRecord().get("record-1"));
+	}
+
+	@Test
+	void failedEvaluationsLeaveNoKeyInTheIndex() {
+
+		// each distinct input fails while OPA is down
+		for (int i = 0; i < 5; i++) {
+			Mono<Boolean> decision = decisionCache.get(data("record-1", "token-" + i), Boolean.class,
+					() -> Mono.error(new IllegalStateException("OPA is not reachable")));
+
+			assertThrows(IllegalStateException.class, () -> decision.block());
+		}
+
+		assertNull(keysByRecord().get("record-1"));
+	}
+
+	@Test
+	void emptyEvaluationsLeaveNoKeyInTheIndex() {
+		assertNull(decisionCache.get(data("record-1", "token-1"), Boolean.class, Mono::empty).block());
+
+		assertNull(keysByRecord().get("record-1"));
+	}
+}
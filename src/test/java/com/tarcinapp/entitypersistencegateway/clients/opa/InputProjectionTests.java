@@ -0,0 +1,117 @@
+package com.tarcinapp.entitypersistencegateway.clients.opa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.server.RequestPath;
+import org.springframework.util.LinkedMultiValueMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+
+class InputProjectionTests {
+
+	private static final List<String> PATHS = List.of("appShortcode", "httpMethod", "requestPath",
+			"originalRecord._ownerUsers", "originalRecord._ownerGroups", "originalRecord._visibility",
+			"originalRecord.color", "requestPayload._name");
+
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+	private static PolicyData fullData() {
+		AnyRecordBase original = new AnyRecordBase();
+		original.set_id("record-1");
+		original.set_kind("book");
+		original.set_visibility("private");
+		original.set_ownerUsers(List.of("user-1"));
+		original.set_ownerGroups(List.of("editors"));
+		original.set_viewerUsers(List.of("user-2"));
+		original.setCustomFields("color", "blue");
+		original.setCustomFields("pages", 320);
+
+		AnyRecordBase payload = new AnyRecordBase();
+		payload.set_name("new name");
+		payload.set_kind("book");
+
+		LinkedMultiValueMap<String, String> queryParams = new LinkedMultiValueMap<>();
+		queryParams.add("set[actives]", "");
+
+		PolicyData data = new PolicyData();
+		data.setPolicyName("/policies/auth/routes/updateEntityById/policy");
+		data.setAppShortcode("tarcinapp");
+		data.setHttpMethod(HttpMethod.PATCH);
+		data.setRequestPath(RequestPath.parse("/api/v1/entities/record-1", null));
+		data.setQueryParams(queryParams);
+		data.setEncodedJwt("header.payload.signature");
+		data.setClaims(Map.of("sub", "user-1"));
+		data.setOriginalRecord(original);
+		data.setRequestPayload(payload);
+
+		return data;
+	}
+
+	private JsonNode at(JsonNode input, String path) {
+		JsonNode node = input;
+
+		for (String segment : path.split("\\.")) {
+			node = node.path(segment);
+		}
+
+		return node;
+	}
+
+	@Test
+	void projectedInputEqualsTheFullInputOnTheDeclaredPaths() {
+		PolicyData data = fullData();
+
+		JsonNode full = objectMapper.valueToTree(data);
+		JsonNode projected = objectMapper.valueToTree(new InputProjection(PATHS).project(data));
+
+		for (String path : PATHS) {
+			assertFalse(at(full, path).isMissingNode(), path);
+			assertEquals(at(full, path), at(projected, path), path);
+		}
+
+		// identity of the caller and the policy name are always kept
+		for (String path : List.of("policyName", "encodedJwt", "claims")) {
+			assertEquals(at(full, path), at(projected, path), path);
+		}
+	}
+
+	@Test
+	void pathsNotDeclaredAreLeftOut() {
+		JsonNode projected = objectMapper.valueToTree(new InputProjection(PATHS).project(fullData()));
+
+		for (String path : List.of("queryParams", "originalRecord._id", "originalRecord._kind",
+				"originalRecord._viewerUsers", "originalRecord.pages", "requestPayload._kind")) {
+			assertTrue(at(projected, path).isMissingNode(), path);
+		}
+	}
+
+	@Test
+	void wholeRecordPathKeepsTheRecord() {
+		PolicyData data = fullData();
+
+		JsonNode full = objectMapper.valueToTree(data);
+		JsonNode projected = objectMapper.valueToTree(
+				new InputProjection(List.of("originalRecord", "originalRecord._id")).project(data));
+
+		assertEquals(full.get("originalRecord"), projected.get("originalRecord"));
+		assertFalse(projected.has("requestPayload"));
+	}
+
+	@Test
+	void unknownPathIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new InputProjection(List.of("unknownField")));
+		assertThrows(IllegalArgumentException.class, () -> new InputProjection(List.of("unknownRecord._id")));
+	}
+}
@@ -0,0 +1,163 @@
+package com.tarcinapp.entitypersistencegateway.clients.opa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class OpaBatcherTests {
+
+	// batches received by the sender, in the order they are sent
+	private final List<List<String>> sentBatches = Collections.synchronizedList(new ArrayList<>());
+
+	private OpaBatcher batcher(Function<List<PolicyData>, Mono<List<Object>>> sender) {
+
+		return new OpaBatcher(inputs -> {
+			sentBatches.add(inputs.stream().map(PolicyData::getPolicyName).collect(Collectors.toList()));
+
+			return sender.apply(inputs);
+		}, new SimpleMeterRegistry(), 8, 50_000, 100_000);
+	}
+
+	private static PolicyData policy(String name) {
+		PolicyData data = new PolicyData();
+		data.setPolicyName(name);
+
+		return data;
+	}
+
+	/**
+	 * Answers each input with a result derived from its policy name, after a
+	 * delay, so that the results arrive after all evaluations are submitted.
+	 */
+	private static Mono<List<Object>> echo(List<PolicyData> inputs) {
+
+		return Mono.delay(Duration.ofMillis(10))
+				.map(tick -> inputs.stream()
+						.map(data -> (Object) ("decision of " + data.getPolicyName()))
+						.collect(Collectors.toList()));
+	}
+
+	@Test
+	void eachEvaluationReceivesTheResultAtItsPositionInTheBatch() {
+		OpaBatcher batcher = batcher(OpaBatcherTests::echo);
+
+		List<Object> results = Flux.range(0, 6)
+				.flatMap(i -> batcher.submit(policy("policy-" + i)), 6)
+				.collectList()
+				.block(Duration.ofSeconds(5));
+
+		// results complete in any order, but each one belongs to its own evaluation
+		List<Object> expected = new ArrayList<>();
+
+		for (int i = 0; i < 6; i++) {
+			expected.add("decision of policy-" + i);
+		}
+
+		assertEquals(expected.size(), results.size());
+		assertEquals(new HashSet<>(expected), new HashSet<>(results));
+
+		// evaluations are sent in the order they are submitted
+		List<String> sent = sentBatches.stream().flatMap(List::stream).collect(Collectors.toList());
+		assertEquals(List.of("policy-0", "policy-1", "policy-2", "policy-3", "policy-4", "policy-5"), sent);
+	}
+
+	@Test
+	void resultsAreNotMixedWhenBatchesCompleteInReverseOrder() {
+		// the first batch completes last
+		OpaBatcher batcher = batcher(inputs -> Mono.delay(Duration.ofMillis(sentBatches.size() == 1 ? 300 : 10))
+				.map(tick -> inputs.stream()
+						.map(data -> (Object) ("decision of " + data.getPolicyName()))
+						.collect(Collectors.toList())));
+
+		Mono<Object> first = batcher.submit(policy("a"));
+		Mono<Object> second = batcher.submit(policy("b"));
+		Mono<Object> third = batcher.submit(policy("c"));
+		Mono<Object> fourth = batcher.submit(policy("d"));
+
+		List<Object> results = Mono.zip(first, second, third, fourth)
+				.map(tuple -> List.of(tuple.getT1(), tuple.getT2(), tuple.getT3(), tuple.getT4()))
+				.block(Duration.ofSeconds(5));
+
+		assertEquals(List.of("decision of a", "decision of b", "decision of c", "decision of d"), results);
+		assertEquals(List.of(List.of("a", "b"), List.of("c", "d")), sentBatches);
+	}
+
+	@Test
+	void undefinedDecisionOnlyFailsItsOwnEvaluation() {
+		OpaBatcher batcher = batcher(inputs -> Mono.just(inputs.stream()
+				.map(data -> data.getPolicyName().equals("undefined") ? null : (Object) data.getPolicyName())
+				.collect(Collectors.toList())));
+
+		Mono<Object> defined = batcher.submit(policy("defined"));
+		Mono<Object> undefined = batcher.submit(policy("undefined"));
+
+		List<Object> results = Flux.merge(defined, undefined.onErrorReturn("failed"))
+				.collectList()
+				.block(Duration.ofSeconds(5));
+
+		assertEquals(2, results.size());
+		assertTrue(results.contains("defined"));
+		assertTrue(results.contains("failed"));
+	}
+
+	@Test
+	void failedEvaluationOnlyFailsItsOwnEvaluation() {
+		OpaBatcher batcher = batcher(inputs -> Mono.just(inputs.stream()
+				.map(data -> data.getPolicyName().equals("failing")
+						? new IllegalStateException("Policy call is failed")
+						: (Object) data.getPolicyName())
+				.collect(Collectors.toList())));
+
+		List<Object> results = Flux.merge(
+				batcher.submit(policy("defined")),
+				batcher.submit(policy("failing")).onErrorReturn("failed"))
+				.collectList()
+				.block(Duration.ofSeconds(5));
+
+		assertEquals(2, results.size());
+		assertTrue(results.contains("defined"));
+		assertTrue(results.contains("failed"));
+	}
+
+	@Test
+	void cancelledEvaluationIsRemovedFromThePendingBatch() {
+		OpaBatcher batcher = batcher(OpaBatcherTests::echo);
+
+		// cancelled while waiting for the window to close
+		batcher.submit(policy("cancelled")).subscribe().dispose();
+
+		Object result = batcher.submit(policy("kept")).block(Duration.ofSeconds(5));
+
+		assertEquals("decision of kept", result);
+		assertEquals(List.of(List.of("kept")), sentBatches);
+	}
+
+	@Test
+	void failedBatchFailsAllItsEvaluations() {
+		OpaBatcher batcher = batcher(inputs -> Mono.error(new IllegalStateException("OPA is down")));
+
+		List<Object> results = Flux.merge(
+				batcher.submit(policy("a")).onErrorReturn("failed"),
+				batcher.submit(policy("b")).onErrorReturn("failed"))
+				.collectList()
+				.block(Duration.ofSeconds(5));
+
+		assertEquals(List.of("failed", "failed"), results);
+		assertEquals(List.of(List.of("a", "b")), sentBatches);
+	}
+}
@@ -0,0 +1,151 @@
+package com.tarcinapp.entitypersistencegateway.clients.opa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.server.RequestPath;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.LinkedMultiValueMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyData;
+import com.tarcinapp.entitypersistencegateway.auth.PolicyInputMode;
+import com.tarcinapp.entitypersistencegateway.config.ClaimsInputConfig;
+import com.tarcinapp.entitypersistencegateway.config.InputProjectionConfig;
+import com.tarcinapp.entitypersistencegateway.dto.AnyRecordBase;
+
+/**
+ * Input written by splicing the policy name into the shared serialized input
+ * must be the same JSON as Jackson's serialization of the whole policy data.
+ */
+class PolicyInputWriterTests {
+
+	// a policy name which needs escaping
+	private static final String POLICY_NAME = "/policies/auth/routes/\"quoted\"/ünicode/policy";
+
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+	private PolicyInputWriter writer;
+
+	@BeforeEach
+	void setUp() {
+		writer = new PolicyInputWriter();
+		ReflectionTestUtils.setField(writer, "claimsInputConfig", new ClaimsInputConfig());
+		ReflectionTestUtils.setField(writer, "inputProjectionConfig", new InputProjectionConfig());
+	}
+
+	private static PolicyData emptyData() {
+		PolicyData data = new PolicyData();
+		data.setPolicyName(POLICY_NAME);
+
+		return data;
+	}
+
+	private static PolicyData fullData() {
+		AnyRecordBase original = new AnyRecordBase();
+		original.set_id("record-1");
+		original.set_kind("book");
+		original.set_version(3);
+		original.set_ownerUsers(List.of("user-1"));
+		original.setCustomFields("color", "blue");
+
+		AnyRecordBase payload = new AnyRecordBase();
+		payload.set_name("new name");
+
+		LinkedMultiValueMap<String, String> queryParams = new LinkedMultiValueMap<>();
+		queryParams.add("set[actives]", "");
+
+		PolicyData data = emptyData();
+		data.setAppShortcode("tarcinapp");
+		data.setHttpMethod(HttpMethod.PATCH);
+		data.setRequestPath(RequestPath.parse("/api/v1/entities/record-1", null));
+		data.setQueryParams(queryParams);
+		data.setEncodedJwt("header.payload.signature");
+		data.setOriginalRecord(original);
+		data.setRequestPayload(payload);
+
+		return data;
+	}
+
+	private JsonNode jacksonInput(PolicyData data) throws Exception {
+		return objectMapper.readTree(objectMapper.writeValueAsBytes(data));
+	}
+
+	private static byte[] bytesOf(DataBuffer buffer) {
+		byte[] bytes = new byte[buffer.readableByteCount()];
+		buffer.read(bytes);
+		DataBufferUtils.release(buffer);
+
+		return bytes;
+	}
+
+	@Test
+	void serializedEmptyInputEqualsJackson() throws Exception {
+		PolicyData data = emptyData();
+
+		assertEquals("{}", new String(writer.serializeWithoutPolicyName(data), StandardCharsets.UTF_8));
+		assertEquals(jacksonInput(emptyData()), objectMapper.readTree(writer.serialize(data)));
+	}
+
+	@Test
+	void serializedInputEqualsJackson() throws Exception {
+		assertEquals(jacksonInput(fullData()), objectMapper.readTree(writer.serialize(fullData())));
+	}
+
+	@Test
+	void dataRequestWrapsTheInput() throws Exception {
+
+		for (PolicyData data : List.of(emptyData(), fullData())) {
+			ObjectNode expected = objectMapper.createObjectNode();
+			expected.set("input", jacksonInput(data));
+
+			JsonNode written = objectMapper.readTree(bytesOf(writer.writeDataRequest(data)));
+
+			assertEquals(expected, written);
+		}
+	}
+
+	@Test
+	void queryRequestHasTheInputWithoutThePolicyName() throws Exception {
+		PolicyData data = fullData();
+
+		ObjectNode input = (ObjectNode) jacksonInput(data);
+		input.remove("policyName");
+
+		ObjectNode expected = objectMapper.createObjectNode();
+		expected.put("query", "x = data.policies.a; y = data.policies.b");
+		expected.set("input", input);
+
+		JsonNode written = objectMapper.readTree(bytesOf(
+				writer.writeQueryRequest("x = data.policies.a; y = data.policies.b", data, PolicyInputMode.JWT)));
+
+		assertEquals(expected, written);
+	}
+
+	@Test
+	void serializedInputIsSharedByTheClones() throws Exception {
+		PolicyData data = fullData();
+		byte[] first = writer.serializeWithoutPolicyName(data);
+
+		PolicyData clone = (PolicyData) data.clone();
+		clone.setPolicyName("/policies/fields/entities/policy");
+
+		assertSame(first, writer.serializeWithoutPolicyName(clone));
+
+		ObjectNode expected = (ObjectNode) jacksonInput(data);
+		expected.put("policyName", "/policies/fields/entities/policy");
+
+		assertEquals(expected, objectMapper.readTree(writer.serialize(clone)));
+	}
+}
@@ -0,0 +1,205 @@
+package com.tarcinapp.entitypersistencegateway.filters.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.redisson.api.RBucketReactive;
+import org.redisson.api.RedissonReactiveClient;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tarcinapp.entitypersistencegateway.dto.IdempotentResponse;
+import com.tarcinapp.entitypersistencegateway.helpers.CanonicalJsonHasher;
+
+import reactor.core.publisher.Mono;
+
+class HandleIdempotencyKeyTests {
+
+	private static final String PAYLOAD = "{\"_name\":\"book\",\"_kind\":\"novel\"}";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private RBucketReactive<String> bucket;
+
+	private GatewayFilter filter;
+
+	private final AtomicBoolean chainCalled = new AtomicBoolean(false);
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setUp() {
+		bucket = mock(RBucketReactive.class);
+		when(bucket.set(anyString(), anyLong(), any(TimeUnit.class))).thenReturn(Mono.empty());
+		when(bucket.delete()).thenReturn(Mono.just(true));
+
+		RedissonReactiveClient redissonReactiveClient = mock(RedissonReactiveClient.class);
+		doReturn(bucket).when(redissonReactiveClient).getBucket(anyString(), any());
+
+		HandleIdempotencyKey factory = new HandleIdempotencyKey();
+		ReflectionTestUtils.setField(factory, "redissonReactiveClient", redissonReactiveClient);
+		ReflectionTestUtils.setField(factory, "appShortcode", "tarcinapp");
+		ReflectionTestUtils.setField(factory, "idempotencyKeyHeader", "Idempotency-Key");
+		ReflectionTestUtils.setField(factory, "ttlSeconds", 60L);
+		ReflectionTestUtils.setField(factory, "inFlightTtlSeconds", 30L);
+		ReflectionTestUtils.setField(factory, "waitTimeoutSeconds", 1L);
+		ReflectionTestUtils.setField(factory, "pollIntervalMillis", 10L);
+
+		filter = factory.apply(new HandleIdempotencyKey.Config());
+	}
+
+	private MockServerWebExchange exchange() {
+		return MockServerWebExchange.from(MockServerHttpRequest.post("/api/v1/entities")
+				.header("Idempotency-Key", "key-1")
+				.body(PAYLOAD));
+	}
+
+	private GatewayFilterChain chain() {
+
+		return exchange -> {
+			chainCalled.set(true);
+
+			ServerHttpResponse response = exchange.getResponse();
+			response.setStatusCode(HttpStatus.CREATED);
+			response.getHeaders().add("Location", "/api/v1/entities/1");
+
+			return response.writeWith(Mono.just(response.bufferFactory()
+					.wrap("{\"_id\":\"1\"}".getBytes(StandardCharsets.UTF_8))));
+		};
+	}
+
+	private static String digest(String payload) throws Exception {
+		CanonicalJsonHasher hasher = new CanonicalJsonHasher();
+		hasher.update(payload.getBytes(StandardCharsets.UTF_8));
+
+		return hasher.hexDigest();
+	}
+
+	private String completed(String payloadDigest) throws Exception {
+		IdempotentResponse stored = new IdempotentResponse();
+		stored.setPayloadDigest(payloadDigest);
+		stored.setCompleted(true);
+		stored.setStatus(201);
+		stored.setHeaders(Map.of("Location", List.of("/api/v1/entities/1")));
+		stored.setBody("{\"_id\":\"1\"}".getBytes(StandardCharsets.UTF_8));
+
+		return objectMapper.writeValueAsString(stored);
+	}
+
+	@Test
+	void firstRequestIsProcessedAndItsResponseIsStored() throws Exception {
+		when(bucket.setIfAbsent(anyString(), any(Duration.class))).thenReturn(Mono.just(true));
+		MockServerWebExchange exchange = exchange();
+
+		filter.filter(exchange, chain()).block();
+
+		assertTrue(chainCalled.get());
+		assertEquals(HttpStatus.CREATED, exchange.getResponse().getStatusCode());
+
+		ArgumentCaptor<String> stored = ArgumentCaptor.forClass(String.class);
+		verify(bucket).set(stored.capture(), anyLong(), any(TimeUnit.class));
+
+		IdempotentResponse response = objectMapper.readValue(stored.getValue(), IdempotentResponse.class);
+		assertEquals(201, response.getStatus());
+		assertEquals(digest(PAYLOAD), response.getPayloadDigest());
+		assertEquals("{\"_id\":\"1\"}", new String(response.getBody(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void failingStoreDoesNotFailTheCreatedResponseNorReleaseTheKey() throws Exception {
+		when(bucket.setIfAbsent(anyString(), any(Duration.class))).thenReturn(Mono.just(true));
+		when(bucket.set(anyString(), anyLong(), any(TimeUnit.class)))
+				.thenReturn(Mono.error(new IllegalStateException("Redis is not reachable")));
+		MockServerWebExchange exchange = exchange();
+
+		filter.filter(exchange, chain()).block();
+
+		assertTrue(chainCalled.get());
+		assertEquals(HttpStatus.CREATED, exchange.getResponse().getStatusCode());
+		assertEquals("{\"_id\":\"1\"}", exchange.getResponse().getBodyAsString().block());
+		// a released key would let the retry create the record again
+		verify(bucket, never()).delete();
+	}
+
+	@Test
+	void serverErrorIsNotStoredAndTheKeyIsReleased() throws Exception {
+		when(bucket.setIfAbsent(anyString(), any(Duration.class))).thenReturn(Mono.just(true));
+		MockServerWebExchange exchange = exchange();
+
+		filter.filter(exchange, chainExchange -> {
+			ServerHttpResponse response = chainExchange.getResponse();
+			response.setStatusCode(HttpStatus.BAD_GATEWAY);
+
+			return response.writeWith(Mono.just(response.bufferFactory().wrap(new byte[0])));
+		}).block();
+
+		assertEquals(HttpStatus.BAD_GATEWAY, exchange.getResponse().getStatusCode());
+		verify(bucket, never()).set(anyString(), anyLong(), any(TimeUnit.class));
+		verify(bucket).delete();
+	}
+
+	@Test
+	void retryWithTheSamePayloadIsReplayed() throws Exception {
+		when(bucket.setIfAbsent(anyString(), any(Duration.class))).thenReturn(Mono.just(false));
+		// same payload with a different key order
+		when(bucket.get()).thenReturn(Mono.just(completed(digest("{\"_kind\":\"novel\",\"_name\":\"book\"}"))));
+		MockServerWebExchange exchange = exchange();
+
+		filter.filter(exchange, chain()).block();
+
+		assertFalse(chainCalled.get());
+		assertEquals(HttpStatus.CREATED, exchange.getResponse().getStatusCode());
+		assertEquals("true", exchange.getResponse().getHeaders().getFirst("Idempotent-Replayed"));
+		assertEquals("/api/v1/entities/1", exchange.getResponse().getHeaders().getFirst("Location"));
+		assertEquals("{\"_id\":\"1\"}", exchange.getResponse().getBodyAsString().block());
+	}
+
+	@Test
+	void keyReusedWithADifferentPayloadIsRejectedWith422() throws Exception {
+		when(bucket.setIfAbsent(anyString(), any(Duration.class))).thenReturn(Mono.just(false));
+		when(bucket.get()).thenReturn(Mono.just(completed(digest("{\"_name\":\"another book\"}"))));
+		MockServerWebExchange exchange = exchange();
+
+		filter.filter(exchange, chain()).block();
+
+		assertFalse(chainCalled.get());
+		assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, exchange.getResponse().getStatusCode());
+	}
+
+	@Test
+	void retryWaitingTooLongForTheFirstRequestIsRejectedWith409() throws Exception {
+		when(bucket.setIfAbsent(anyString(), any(Duration.class))).thenReturn(Mono.just(false));
+		when(bucket.get()).thenReturn(Mono.just(objectMapper.writeValueAsString(
+				IdempotentResponse.inFlight(digest(PAYLOAD)))));
+		MockServerWebExchange exchange = exchange();
+
+		filter.filter(exchange, chain()).block(Duration.ofSeconds(5));
+
+		assertFalse(chainCalled.get());
+		assertEquals(HttpStatus.CONFLICT, exchange.getResponse().getStatusCode());
+	}
+}
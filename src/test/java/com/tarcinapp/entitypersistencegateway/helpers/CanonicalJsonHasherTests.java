@@ -0,0 +1,115 @@
+package com.tarcinapp.entitypersistencegateway.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+class CanonicalJsonHasherTests {
+
+	private static String hash(String json) throws IOException {
+		CanonicalJsonHasher hasher = new CanonicalJsonHasher();
+		hasher.update(json.getBytes(StandardCharsets.UTF_8));
+
+		return hasher.hexDigest();
+	}
+
+	@Test
+	void keyOrderAndWhitespaceDoNotChangeTheHash() throws IOException {
+		String hash = hash("{\"name\":\"book\",\"meta\":{\"a\":1,\"b\":[1,2]},\"active\":true}");
+
+		assertEquals(hash, hash("{ \"active\" : true, \"meta\" : { \"b\" : [ 1, 2 ], \"a\" : 1 }, \"name\" : \"book\" }"));
+	}
+
+	@Test
+	void arrayOrderChangesTheHash() throws IOException {
+		assertNotEquals(hash("{\"items\":[1,2]}"), hash("{\"items\":[2,1]}"));
+	}
+
+	@Test
+	void valueTypeChangesTheHash() throws IOException {
+		assertNotEquals(hash("{\"a\":1}"), hash("{\"a\":\"1\"}"));
+		assertNotEquals(hash("{\"a\":null}"), hash("{\"a\":\"null\"}"));
+	}
+
+	@Test
+	void equalDecimalsHaveTheSameHash() throws IOException {
+		assertEquals(hash("{\"price\":1.5}"), hash("{\"price\":1.50}"));
+	}
+
+	@Test
+	void hashDoesNotDependOnTheChunks() throws IOException {
+		byte[] json = "{\"name\":\"a long enough name\",\"tags\":[\"x\",\"y\"]}".getBytes(StandardCharsets.UTF_8);
+		CanonicalJsonHasher hasher = new CanonicalJsonHasher();
+
+		for (int offset = 0; offset < json.length; offset += 5) {
+			DataBuffer chunk = DefaultDataBufferFactory.sharedInstance.allocateBuffer(5);
+			chunk.write(json, offset, Math.min(5, json.length - offset));
+			hasher.update(chunk);
+
+			// read position is left untouched, the buffer can still be forwarded
+			assertEquals(Math.min(5, json.length - offset), chunk.readableByteCount());
+		}
+
+		assertEquals(hash(new String(json, StandardCharsets.UTF_8)), hasher.hexDigest());
+	}
+
+	@Test
+	void nonAsciiStringsAreHashedAsUtf8() throws IOException, NoSuchAlgorithmException {
+		assertEquals(hash("{\"name\":\"k\u00f6pr\u00fc \u20ac \ud83d\ude00\"}"),
+				hash("{\"name\":\"k\\u00f6pr\\u00fc \\u20ac \\ud83d\\ude00\"}"));
+		assertNotEquals(hash("{\"name\":\"\u00f6\"}"), hash("{\"name\":\"o\"}"));
+
+		// digests stored before keep matching, a string is hashed as its tag and its UTF-8 bytes
+		String value = "k\u00f6pr\u00fc \u20ac \ud83d\ude00";
+		MessageDigest expected = MessageDigest.getInstance("SHA-256");
+		expected.update((byte) 's');
+		expected.update(value.getBytes(StandardCharsets.UTF_8));
+
+		assertEquals(CanonicalJsonHasher.toHex(expected.digest()), hash("\"" + value + "\""));
+
+		// unpaired surrogates are encoded as '?', the same as String.getBytes does
+		assertEquals(hash("{\"name\":\"?\"}"), hash("{\"name\":\"\\ud83d\"}"));
+	}
+
+	@Test
+	void fieldsAreSortedBeyondTheInitialCapacity() throws IOException {
+		StringBuilder ascending = new StringBuilder("{");
+		StringBuilder descending = new StringBuilder("{");
+
+		for (int i = 0; i < 50; i++) {
+			ascending.append(i > 0 ? "," : "").append("\"f").append(100 + i).append("\":").append(i);
+			descending.append(i > 0 ? "," : "").append("\"f").append(149 - i).append("\":").append(49 - i);
+		}
+
+		assertEquals(hash(ascending.append("}").toString()), hash(descending.append("}").toString()));
+	}
+
+	@Test
+	void duplicateFieldsKeepTheirOrder() throws IOException {
+		assertNotEquals(hash("{\"a\":1,\"a\":2}"), hash("{\"a\":2,\"a\":1}"));
+		assertEquals(hash("{\"b\":0,\"a\":1,\"a\":2}"), hash("{\"a\":1,\"b\":0,\"a\":2}"));
+	}
+
+	@Test
+	void hasherIsReusedAcrossNestedContainers() throws IOException {
+		assertEquals(hash("[{\"a\":1,\"b\":2},{\"c\":[3]}]"), hash("[{\"b\":2,\"a\":1},{\"c\":[3]}]"));
+		assertNotEquals(hash("[{\"a\":1},{\"b\":2}]"), hash("[{\"b\":2},{\"a\":1}]"));
+	}
+
+	@Test
+	void incompleteDocumentIsRejected() throws IOException {
+		CanonicalJsonHasher hasher = new CanonicalJsonHasher();
+		hasher.update("{\"name\":".getBytes(StandardCharsets.UTF_8));
+
+		assertThrows(IOException.class, hasher::hexDigest);
+	}
+}
@@ -0,0 +1,72 @@
+package com.tarcinapp.entitypersistencegateway.locks;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class LocalLockTableTests {
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private LocalLockTable lockTable(long leaseSeconds) {
+		LocalLockTable table = new LocalLockTable();
+		ReflectionTestUtils.setField(table, "enabled", true);
+		ReflectionTestUtils.setField(table, "stripeCount", 4);
+		ReflectionTestUtils.setField(table, "leaseSeconds", leaseSeconds);
+		ReflectionTestUtils.setField(table, "meterRegistry", meterRegistry);
+		ReflectionTestUtils.invokeMethod(table, "initStripes");
+
+		return table;
+	}
+
+	@Test
+	void rejectsSecondOwnerOfTheSameLock() {
+		LocalLockTable table = lockTable(30);
+
+		assertTrue(table.tryAcquire("record-lock:1", "owner-a"));
+		assertFalse(table.tryAcquire("record-lock:1", "owner-b"));
+		assertTrue(table.tryAcquire("record-lock:2", "owner-b"));
+
+		double contention = meterRegistry.find("gateway.locks.local.contention").counters().stream()
+				.mapToDouble(c -> c.count())
+				.sum();
+
+		assertEquals(1, contention);
+	}
+
+	@Test
+	void releaseFreesTheLockForTheNextOwner() {
+		LocalLockTable table = lockTable(30);
+
+		assertTrue(table.tryAcquire("record-lock:1", "owner-a"));
+		table.release("record-lock:1", "owner-a");
+
+		assertTrue(table.tryAcquire("record-lock:1", "owner-b"));
+	}
+
+	@Test
+	void releaseByAnotherOwnerKeepsTheLock() {
+		LocalLockTable table = lockTable(30);
+
+		assertTrue(table.tryAcquire("record-lock:1", "owner-a"));
+		table.release("record-lock:1", "owner-b");
+
+		assertFalse(table.tryAcquire("record-lock:1", "owner-c"));
+	}
+
+	@Test
+	void lockOlderThanTheLeaseIsTakenOver() throws InterruptedException {
+		LocalLockTable table = lockTable(0);
+
+		assertTrue(table.tryAcquire("record-lock:1", "owner-a"));
+		Thread.sleep(1);
+
+		assertTrue(table.tryAcquire("record-lock:1", "owner-b"));
+	}
+}
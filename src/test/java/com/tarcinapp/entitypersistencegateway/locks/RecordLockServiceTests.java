@@ -0,0 +1,160 @@
+package com.tarcinapp.entitypersistencegateway.locks;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RScriptReactive;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.tarcinapp.entitypersistencegateway.resilience.DependencyGuards;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+class RecordLockServiceTests {
+
+	// lock keys and their owner tokens, as the scripts would keep them in Redis
+	private final Map<String, String> redis = new ConcurrentHashMap<>();
+
+	private RecordLockService lockService;
+
+	private LocalLockTable localLockTable;
+
+	private DependencyGuards dependencyGuards;
+
+	@BeforeEach
+	void setUp() {
+		localLockTable = new LocalLockTable();
+		ReflectionTestUtils.setField(localLockTable, "enabled", true);
+		ReflectionTestUtils.setField(localLockTable, "stripeCount", 4);
+		ReflectionTestUtils.setField(localLockTable, "leaseSeconds", 30L);
+		ReflectionTestUtils.setField(localLockTable, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.invokeMethod(localLockTable, "initStripes");
+
+		dependencyGuards = mock(DependencyGuards.class);
+		when(dependencyGuards.guard(anyString(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+
+		lockService = new RecordLockService();
+		ReflectionTestUtils.setField(lockService, "leaseSeconds", 30L);
+		ReflectionTestUtils.setField(lockService, "localLockTable", localLockTable);
+		ReflectionTestUtils.setField(lockService, "dependencyGuards", dependencyGuards);
+		ReflectionTestUtils.setField(lockService, "script", fakeRedisScript());
+	}
+
+	/**
+	 * Evaluates the acquire (SET NX) and release (compare-and-delete) scripts
+	 * against the in-memory map. Varargs are expanded in the invocation
+	 * arguments, the owner token is the first value.
+	 */
+	private RScriptReactive fakeRedisScript() {
+
+		return mock(RScriptReactive.class, invocation -> {
+
+			if (!invocation.getMethod().getName().equals("eval")) {
+				return null;
+			}
+
+			String script = invocation.getArgument(1);
+			List<Object> keys = invocation.getArgument(3);
+			String key = (String) keys.get(0);
+			String ownerToken = invocation.getArgument(4);
+
+			if (script.contains("'set'")) {
+				return Mono.just(redis.putIfAbsent(key, ownerToken) == null ? 1L : 0L);
+			}
+
+			return Mono.just(redis.remove(key, ownerToken) ? 1L : 0L);
+		});
+	}
+
+	@Test
+	void acquireTakesTheDistributedLock() {
+		RecordLock lock = lockService.acquire("record-lock:1").block();
+
+		assertEquals("record-lock:1", lock.getName());
+		assertEquals(lock.getOwnerToken(), redis.get("record-lock:1"));
+	}
+
+	@Test
+	void releaseFreesTheDistributedAndLocalLock() {
+		RecordLock lock = lockService.acquire("record-lock:1").block();
+
+		lockService.release(lock).block();
+
+		assertFalse(redis.containsKey("record-lock:1"));
+		assertTrue(localLockTable.tryAcquire("record-lock:1", "next-owner"));
+	}
+
+	@Test
+	void contendingRequestOnTheSameNodeIsRejectedLocally() {
+		lockService.acquire("record-lock:1").block();
+		redis.clear();
+
+		ResponseStatusException e = assertThrows(ResponseStatusException.class,
+				() -> lockService.acquire("record-lock:1").block());
+
+		assertEquals(HttpStatus.LOCKED, e.getStatusCode());
+		// rejected without asking Redis
+		assertFalse(redis.containsKey("record-lock:1"));
+	}
+
+	@Test
+	void lockHeldByAnotherNodeIsRejectedAndLocalLockIsReleased() {
+		redis.put("record-lock:1", "owner-on-another-node");
+
+		ResponseStatusException e = assertThrows(ResponseStatusException.class,
+				() -> lockService.acquire("record-lock:1").block());
+
+		assertEquals(HttpStatus.LOCKED, e.getStatusCode());
+		assertTrue(localLockTable.tryAcquire("record-lock:1", "next-owner"));
+	}
+
+	@Test
+	void releaseOfAnExpiredLockKeepsTheNewOwner() {
+		RecordLock lock = lockService.acquire("record-lock:1").block();
+		redis.put("record-lock:1", "new-owner");
+
+		lockService.release(lock).block();
+
+		assertEquals("new-owner", redis.get("record-lock:1"));
+	}
+
+	@Test
+	void releaseIsNotRejectedByTheDependencyGuards() {
+		RecordLock lock = lockService.acquire("record-lock:1").block();
+
+		// redis breaker opens while the lock is held
+		when(dependencyGuards.guard(anyString(), any())).thenAnswer(invocation -> Mono
+				.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Circuit breaker is open")));
+
+		lockService.release(lock).block();
+
+		assertFalse(redis.containsKey("record-lock:1"));
+		assertTrue(localLockTable.tryAcquire("record-lock:1", "next-owner"));
+	}
+
+	@Test
+	void withLockReleasesTheLockWhenTheActionFails() {
+		Mono<String> failing = lockService.withLock("record-lock:1",
+				lock -> Mono.error(new IllegalStateException("backend failed")));
+
+		assertThrows(IllegalStateException.class, failing::block);
+
+		assertFalse(redis.containsKey("record-lock:1"));
+		assertTrue(localLockTable.tryAcquire("record-lock:1", "next-owner"));
+	}
+}
@@ -0,0 +1,74 @@
+package com.tarcinapp.entitypersistencegateway.resilience;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.tarcinapp.entitypersistencegateway.config.ResilienceConfig;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+class DependencyGuardsTests {
+
+	private DependencyGuards dependencyGuards;
+
+	@BeforeEach
+	void setUp() {
+		ResilienceConfig.CircuitBreaker circuitBreaker = new ResilienceConfig.CircuitBreaker();
+		circuitBreaker.setSlidingWindowSize(4);
+		circuitBreaker.setMinimumNumberOfCalls(4);
+
+		ResilienceConfig.Bulkhead bulkhead = new ResilienceConfig.Bulkhead();
+		bulkhead.setMaxConcurrentCalls(1);
+
+		ResilienceConfig config = new ResilienceConfig();
+		config.setEnabled(true);
+		config.setCircuitBreakers(Map.of("opa", circuitBreaker));
+		config.setBulkheads(Map.of("opa", bulkhead));
+
+		dependencyGuards = new DependencyGuards();
+		ReflectionTestUtils.setField(dependencyGuards, "resilienceConfig", config);
+		ReflectionTestUtils.setField(dependencyGuards, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.invokeMethod(dependencyGuards, "initRegistries");
+	}
+
+	@Test
+	void fullBulkheadDoesNotOpenTheBreaker() {
+		// takes the only permit of the bulkhead
+		Disposable slowCall = dependencyGuards.guard("opa", Mono.never()).subscribe();
+
+		for (int i = 0; i < 10; i++) {
+			ResponseStatusException e = assertThrows(ResponseStatusException.class,
+					() -> dependencyGuards.guard("opa", Mono.just(true)).block());
+
+			assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+		}
+
+		slowCall.dispose();
+
+		CircuitBreaker circuitBreaker = dependencyGuards.circuitBreakerOf("opa");
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+		assertEquals(0, circuitBreaker.getMetrics().getNumberOfFailedCalls());
+	}
+
+	@Test
+	void dependencyErrorsOpenTheBreaker() {
+
+		for (int i = 0; i < 4; i++) {
+			assertThrows(IllegalStateException.class, () -> dependencyGuards
+					.guard("opa", Mono.error(new IllegalStateException("OPA is not reachable"))).block());
+		}
+
+		assertEquals(CircuitBreaker.State.OPEN, dependencyGuards.circuitBreakerOf("opa").getState());
+	}
+}